@@ -2024,6 +2024,7 @@ export const EN_US: SystemLangMap = {
   "PC.Pages.AntvX6NodeOperations.copyNodeFailed": "Failed to copy node",
   "PC.Pages.AntvX6NodeOperations.copyNodeNetworkError": "Network error, failed to copy node",
   "PC.Pages.AntvX6NodeOperations.deleteNodeFailed": "Failed to delete node",
+  "PC.Pages.AntvX6NodeOperations.deletedNodeStillReferenced": "Variables of the deleted node are still referenced by {0} node(s). Please check their configuration",
   "PC.Pages.AntvX6NodePanel.loopBreakDescription": "Immediately terminate current loop and exit loop body",
   "PC.Pages.AntvX6NodePanel.loopContinueDescription": "Terminate current loop iteration and continue next iteration",
   "PC.Pages.AntvX6Params.cycleArrayLoop": "Loop by Array",
@@ -2151,6 +2152,8 @@ export const EN_US: SystemLangMap = {
   "PC.Pages.AntvX6Skill.remove": "Remove",
   "PC.Pages.AntvX6Stencil.nodeSelectorTitle": "Node Selector",
   "PC.Pages.AntvX6Stencil.searchPlaceholder": "Search nodes...",
+  "PC.Pages.AntvX6Validation.referenceMissing": "Parameter {0} references variable {1}, which does not exist or is unavailable",
+  "PC.Pages.AntvX6Validation.referenceTypeMismatch": "Parameter {0} type {1} does not match referenced variable type {2}",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupHint": "Click \"+\" to add group",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupInputHint": "Click \"+\" to add variable reference",
   "PC.Pages.AntvX6VariableAggregation.groupConfigTitle": "Group Config",
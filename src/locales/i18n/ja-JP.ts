@@ -1998,6 +1998,7 @@ export const JA_JP: SystemLangMap = {
   "PC.Pages.AntvX6NodeOperations.copyNodeFailed": "ノードのコピーに失敗しました",
   "PC.Pages.AntvX6NodeOperations.copyNodeNetworkError": "ネットワークエラー、ノードのコピーに失敗しました",
   "PC.Pages.AntvX6NodeOperations.deleteNodeFailed": "ノードの削除に失敗しました",
+  "PC.Pages.AntvX6NodeOperations.deletedNodeStillReferenced": "削除したノードの変数は {0} 個のノードから参照されています。これらのノードの設定を確認してください",
   "PC.Pages.AntvX6NodePanel.loopBreakDescription": "現在のループを直ちに終了し、ループ本体を終了します。",
   "PC.Pages.AntvX6NodePanel.loopContinueDescription": "現在のループの反復を終了し、次の反復を続行します",
   "PC.Pages.AntvX6Params.cycleArrayLoop": "配列によるループ",
@@ -2125,6 +2126,8 @@ export const JA_JP: SystemLangMap = {
   "PC.Pages.AntvX6Skill.remove": "取り除く",
   "PC.Pages.AntvX6Stencil.nodeSelectorTitle": "ノードセレクター",
   "PC.Pages.AntvX6Stencil.searchPlaceholder": "ノードを検索...",
+  "PC.Pages.AntvX6Validation.referenceMissing": "パラメータ {0} が参照する変数 {1} は存在しないか利用できません",
+  "PC.Pages.AntvX6Validation.referenceTypeMismatch": "パラメータ {0} の型 {1} が参照する変数の型 {2} と一致しません",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupHint": "「+」をクリックしてグループを追加します",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupInputHint": "「+」をクリックして変数参照を追加します",
   "PC.Pages.AntvX6VariableAggregation.groupConfigTitle": "グループ構成",
@@ -2024,6 +2024,7 @@ export const ZH_CN: SystemLangMap = {
   "PC.Pages.AntvX6NodeOperations.copyNodeFailed": "复制失败",
   "PC.Pages.AntvX6NodeOperations.copyNodeNetworkError": "网络异常，复制节点失败",
   "PC.Pages.AntvX6NodeOperations.deleteNodeFailed": "删除失败",
+  "PC.Pages.AntvX6NodeOperations.deletedNodeStillReferenced": "已删除节点的变量仍被 {0} 个节点引用，请检查这些节点的配置",
   "PC.Pages.AntvX6NodePanel.loopBreakDescription": "立即终止当前循环并退出循环体",
   "PC.Pages.AntvX6NodePanel.loopContinueDescription": "结束当前循环并继续下一次迭代",
   "PC.Pages.AntvX6Params.cycleArrayLoop": "使用数组循环",
@@ -2151,6 +2152,8 @@ export const ZH_CN: SystemLangMap = {
   "PC.Pages.AntvX6Skill.remove": "移除",
   "PC.Pages.AntvX6Stencil.nodeSelectorTitle": "节点选择",
   "PC.Pages.AntvX6Stencil.searchPlaceholder": "搜索节点...",
+  "PC.Pages.AntvX6Validation.referenceMissing": "参数 {0} 引用的变量 {1} 不存在或不可用",
+  "PC.Pages.AntvX6Validation.referenceTypeMismatch": "参数 {0} 的类型 {1} 与引用变量的类型 {2} 不一致",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupHint": "点击 + 添加分组",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupInputHint": "点击 + 添加变量引用",
   "PC.Pages.AntvX6VariableAggregation.groupConfigTitle": "分组配置",
@@ -1997,6 +1997,7 @@ export const ZH_HK: SystemLangMap = {
   "PC.Pages.AntvX6NodeOperations.copyNodeFailed": "複製失敗",
   "PC.Pages.AntvX6NodeOperations.copyNodeNetworkError": "網絡異常，複製節點失敗",
   "PC.Pages.AntvX6NodeOperations.deleteNodeFailed": "刪除失敗",
+  "PC.Pages.AntvX6NodeOperations.deletedNodeStillReferenced": "已刪除節點的變量仍被 {0} 個節點引用，請檢查這些節點的配置",
   "PC.Pages.AntvX6NodePanel.loopBreakDescription": "立即終止當前循環並退出循環體",
   "PC.Pages.AntvX6NodePanel.loopContinueDescription": "結束當前循環並繼續下一次迭代",
   "PC.Pages.AntvX6Params.cycleArrayLoop": "使用數組循環",
@@ -2124,6 +2125,8 @@ export const ZH_HK: SystemLangMap = {
   "PC.Pages.AntvX6Skill.remove": "移除",
   "PC.Pages.AntvX6Stencil.nodeSelectorTitle": "節點選擇",
   "PC.Pages.AntvX6Stencil.searchPlaceholder": "搜尋節點...",
+  "PC.Pages.AntvX6Validation.referenceMissing": "參數 {0} 引用的變量 {1} 不存在或不可用",
+  "PC.Pages.AntvX6Validation.referenceTypeMismatch": "參數 {0} 的類型 {1} 與引用變量的類型 {2} 不一致",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupHint": "點擊 + 添加分組",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupInputHint": "點擊 + 添加變量引用",
   "PC.Pages.AntvX6VariableAggregation.groupConfigTitle": "分組配置",
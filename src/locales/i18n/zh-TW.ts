@@ -2008,6 +2008,7 @@ export const ZH_TW: SystemLangMap = {
   "PC.Pages.AntvX6NodeOperations.copyNodeFailed": "複製失敗",
   "PC.Pages.AntvX6NodeOperations.copyNodeNetworkError": "網路異常，複製節點失敗",
   "PC.Pages.AntvX6NodeOperations.deleteNodeFailed": "刪除失敗",
+  "PC.Pages.AntvX6NodeOperations.deletedNodeStillReferenced": "已刪除節點的變數仍被 {0} 個節點引用，請檢查這些節點的設定",
   "PC.Pages.AntvX6NodePanel.loopBreakDescription": "立即終止當前迴圈並退出迴圈體",
   "PC.Pages.AntvX6NodePanel.loopContinueDescription": "結束當前迴圈並繼續下一次迭代",
   "PC.Pages.AntvX6Params.cycleArrayLoop": "使用陣列迴圈",
@@ -2135,6 +2136,8 @@ export const ZH_TW: SystemLangMap = {
   "PC.Pages.AntvX6Skill.remove": "移除",
   "PC.Pages.AntvX6Stencil.nodeSelectorTitle": "節點選擇",
   "PC.Pages.AntvX6Stencil.searchPlaceholder": "搜尋節點...",
+  "PC.Pages.AntvX6Validation.referenceMissing": "參數 {0} 引用的變數 {1} 不存在或無法使用",
+  "PC.Pages.AntvX6Validation.referenceTypeMismatch": "參數 {0} 的類型 {1} 與引用變數的類型 {2} 不一致",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupHint": "點選 + 新增分組",
   "PC.Pages.AntvX6VariableAggregation.emptyGroupInputHint": "點選 + 新增變數引用",
   "PC.Pages.AntvX6VariableAggregation.groupConfigTitle": "分組設定",
@@ -10,8 +10,6 @@ import type {
   RunResultItem,
 } from '@/types/interfaces/graph';
 import { ChangeEdgeProps, ChangeNodeProps } from '@/types/interfaces/graph';
-import { NodeConfig } from '@/types/interfaces/node';
-import { cloneDeep, mergeObject } from '@/utils/common';
 import { workflowLogger } from '@/utils/logger';
 import { Graph, Node } from '@antv/x6';
 import { App } from 'antd';
@@ -45,6 +43,7 @@ import {
   setEdgeAttributes,
   updateEdgeArrows,
 } from '../../utils/graphV3';
+import { mergeFormValuesIntoNode } from '../../utils/nodeUtils';
 import {
   createBaseNode,
   createChildNode,
@@ -344,59 +343,13 @@ const GraphContainer = forwardRef<GraphContainerRef, GraphContainerProps>(
         return;
       }
 
-      const { nodeConfig, ...rest } = oldNodeData;
-      const fullChangedValues = Object.keys(changedValues).reduce(
-        (acc: Record<string, any>, key) => {
-          if (typeof key === 'string' && key) {
-            acc[key] = fullFormValues[key];
-          }
-          return acc;
-        },
-        {} as Record<string, any>,
+      graphUpdateNode(
+        nodeId,
+        mergeFormValuesIntoNode(oldNodeData, changedValues, fullFormValues),
       );
 
-      // 分离 top-level 属性和 nodeConfig 属性
-      const topLevelChanges: Record<string, any> = {};
-      const configChanges: Record<string, any> = {};
-
-      Object.keys(fullChangedValues).forEach((key) => {
-        if (key in rest) {
-          topLevelChanges[key] = fullChangedValues[key];
-        } else {
-          configChanges[key] = fullChangedValues[key];
-        }
-      });
-
-      // Special case: Loop node properties are top-level but might not be in 'rest' if they were optional/missing initially
-      // We should explicitly check for known top-level properties for Loop nodes
-      if (oldNodeData.type === 'Loop') {
-        const loopTopLevelProps = [
-          'loopType',
-          'loopTimes',
-          'inputArgs',
-          'outputArgs',
-          'variableArgs',
-          'exceptionHandleConfig',
-        ];
-        loopTopLevelProps.forEach((prop) => {
-          if (prop in fullChangedValues) {
-            topLevelChanges[prop] = fullChangedValues[prop];
-            delete configChanges[prop];
-          }
-        });
-      }
-
-      graphUpdateNode(nodeId, {
-        ...rest,
-        ...topLevelChanges,
-        nodeConfig: mergeObject(
-          cloneDeep(nodeConfig),
-          configChanges,
-        ) as NodeConfig,
-      });
-
       //如果节点是循环节点，则需要调整父节点大小
-      const loopNodeId = rest.loopNodeId;
+      const loopNodeId = oldNodeData.loopNodeId;
       if (loopNodeId) {
         const parentNode = graphRef.current.getCellById(loopNodeId.toString());
         if (parentNode) {
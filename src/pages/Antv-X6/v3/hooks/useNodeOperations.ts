@@ -64,6 +64,7 @@ import {
 } from '../utils/graphV3';
 import { clearPendingNodeCreateSession } from '../utils/nodeCreateSession';
 import { createDefaultNodeConfig } from '../utils/nodeDefaultConfigFactory';
+import { variableReferenceIndex } from '../utils/variableReferenceIndexV3';
 import {
   getNodeSize,
   getShape,
@@ -1213,6 +1214,19 @@ export const useNodeOperations = ({
         icon: '',
       } as ChildNode);
 
+      // 删除前查询反向索引，找出引用了该节点变量的其他节点
+      // （删除循环节点时不含随之删除的内部节点）
+      const removedNodeIds = new Set([
+        Number(id),
+        ...workflowProxy.getLoopInnerNodeIds(Number(id)),
+      ]);
+      const referencingNodeIds = new Set(
+        variableReferenceIndex
+          .getReferencesToNode(Number(id))
+          .map((location) => location.nodeId)
+          .filter((nodeId) => !removedNodeIds.has(nodeId)),
+      );
+
       const res = workflowProxy.deleteNode(Number(id));
       if (res.success) {
         const graph = graphRef.current?.getGraphRef();
@@ -1243,6 +1257,14 @@ export const useNodeOperations = ({
         }
         changeUpdateTime();
         debouncedSaveFullWorkflow();
+        if (referencingNodeIds.size > 0) {
+          message.warning(
+            t(
+              'PC.Pages.AntvX6NodeOperations.deletedNodeStillReferenced',
+              String(referencingNodeIds.size),
+            ),
+          );
+        }
         if (node) {
           if (node.type === 'Loop') {
             changeDrawer(null);
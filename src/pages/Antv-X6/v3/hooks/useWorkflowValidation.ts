@@ -7,13 +7,22 @@
 import { useCallback, useState } from 'react';
 
 import Constant from '@/constants/codes.constants';
+import { t } from '@/services/i18nRuntime';
 import * as service from '@/services/workflow';
 import { IgetDetails } from '@/services/workflow';
 import { GraphContainerRef } from '@/types/interfaces/graph';
-import { ErrorParams } from '@/types/interfaces/workflow';
+import { ErrorItem, ErrorParams } from '@/types/interfaces/workflow';
 
 import { workflowProxy } from '../services/workflowProxyV3';
 import { getEdges } from '../utils/graphV3';
+import {
+  getReferenceSnapshot,
+  type CollectReferenceWorkflowData,
+} from '../utils/variableReferenceQueryV3';
+import {
+  validateReferencesFromSnapshot,
+  type ReferenceIssueV3,
+} from '../utils/variableReferenceValidationV3';
 
 interface UseWorkflowValidationParams {
   workflowId: number;
@@ -31,6 +40,8 @@ interface UseWorkflowValidationParams {
     onSuccess?: () => void,
   ) => Promise<any>;
   getDetails: () => Promise<void>;
+  // 收集引用计算用的工作流数据，与节点引用查询使用同一数据源
+  collectReferenceWorkflowData: CollectReferenceWorkflowData;
 }
 
 interface UseWorkflowValidationReturn {
@@ -46,6 +57,58 @@ interface UseWorkflowValidationReturn {
   handleConfirmPublishWorkflow: () => void;
 }
 
+/**
+ * 格式化变量引用问题
+ */
+const formatReferenceIssue = (issue: ReferenceIssueV3): string =>
+  issue.type === 'missing'
+    ? t(
+        'PC.Pages.AntvX6Validation.referenceMissing',
+        issue.name,
+        issue.bindValue,
+      )
+    : t(
+        'PC.Pages.AntvX6Validation.referenceTypeMismatch',
+        issue.name,
+        issue.dataType || '',
+        issue.referencedDataType || '',
+      );
+
+/**
+ * 前端批量校验所有节点的变量引用，并按节点合并到后端校验的错误列表
+ * 与节点引用查询共享当前图版本的快照，连续校验时不重复编译；
+ * 快照无论由哪一方先编译，都从同一份画布数据生成（Loop 的 innerNodes
+ * 取自画布子节点）。校验失败时不影响后端校验结果
+ */
+const appendReferenceErrors = (
+  errorList: ErrorItem[],
+  workflowId: number,
+  collectWorkflowData: CollectReferenceWorkflowData,
+): ErrorItem[] => {
+  let issues: ReferenceIssueV3[] = [];
+  try {
+    const snapshot = getReferenceSnapshot(workflowId, collectWorkflowData);
+    if (snapshot) {
+      issues = validateReferencesFromSnapshot(snapshot);
+    }
+  } catch (error) {
+    console.error('[V3] Reference validation failed:', error);
+  }
+  if (issues.length === 0) return errorList;
+
+  const merged = errorList.map((item) => ({ ...item }));
+  issues.forEach((issue) => {
+    const message = formatReferenceIssue(issue);
+    const existing = merged.find((item) => item.nodeId === issue.nodeId);
+    if (existing) {
+      existing.error = `${existing.error},${message}`;
+    } else {
+      merged.push({ nodeId: issue.nodeId, error: message });
+    }
+  });
+  return merged;
+};
+
 export const useWorkflowValidation = ({
   workflowId,
   info,
@@ -58,6 +121,7 @@ export const useWorkflowValidation = ({
   doSubmitFormData,
   saveFullWorkflow,
   getDetails,
+  collectReferenceWorkflowData,
 }: UseWorkflowValidationParams): UseWorkflowValidationReturn => {
   // 状态
   const [isValidLoading, setIsValidLoading] = useState(false);
@@ -99,13 +163,17 @@ export const useWorkflowValidation = ({
     const _res = await service.validWorkflow(info?.id as number);
     if (_res.code === Constant.success) {
       const _arr = _res.data.filter((item) => !item.success);
-      if (_arr.length === 0) {
-        return true;
-      } else {
-        const _errorList = _arr.map((child) => ({
+      const _errorList = appendReferenceErrors(
+        _arr.map((child) => ({
           nodeId: child.nodeId,
           error: child.messages.join(','),
-        }));
+        })),
+        workflowId,
+        collectReferenceWorkflowData,
+      );
+      if (_errorList.length === 0) {
+        return true;
+      } else {
         setErrorParams({
           show: true,
           errorList: _errorList,
@@ -125,6 +193,7 @@ export const useWorkflowValidation = ({
     setErrorParams,
     doSubmitFormData,
     saveFullWorkflow,
+    collectReferenceWorkflowData,
   ]);
 
   /**
@@ -143,13 +212,17 @@ export const useWorkflowValidation = ({
     const _res = await service.validWorkflow(info?.id as number);
     if (_res.code === Constant.success) {
       const _arr = _res.data.filter((item) => !item.success);
-      if (_arr.length === 0) {
-        return true;
-      } else {
-        const _errorList = _arr.map((child) => ({
+      const _errorList = appendReferenceErrors(
+        _arr.map((child) => ({
           nodeId: child.nodeId,
           error: child.messages.join(','),
-        }));
+        })),
+        workflowId,
+        collectReferenceWorkflowData,
+      );
+      if (_errorList.length === 0) {
+        return true;
+      } else {
         setErrorParams({
           show: true,
           errorList: _errorList,
@@ -159,7 +232,15 @@ export const useWorkflowValidation = ({
     } else {
       return false;
     }
-  }, [info, getWorkflow, setErrorParams, doSubmitFormData, saveFullWorkflow]);
+  }, [
+    workflowId,
+    info,
+    getWorkflow,
+    setErrorParams,
+    doSubmitFormData,
+    saveFullWorkflow,
+    collectReferenceWorkflowData,
+  ]);
 
   /**
    * 显示发布弹窗
@@ -183,13 +264,17 @@ export const useWorkflowValidation = ({
         let valid = false;
         if (_res.code === Constant.success) {
           const _arr = _res.data.filter((item) => !item.success);
-          if (_arr.length === 0) {
-            valid = true;
-          } else {
-            const _errorList = _arr.map((child) => ({
+          const _errorList = appendReferenceErrors(
+            _arr.map((child) => ({
               nodeId: child.nodeId,
               error: child.messages.join(','),
-            }));
+            })),
+            workflowId,
+            collectReferenceWorkflowData,
+          );
+          if (_errorList.length === 0) {
+            valid = true;
+          } else {
             setErrorParams({
               show: true,
               errorList: _errorList,
@@ -226,6 +311,8 @@ export const useWorkflowValidation = ({
     doSubmitFormData,
     saveFullWorkflow,
     getDetails,
+    workflowId,
+    collectReferenceWorkflowData,
   ]);
 
   /**
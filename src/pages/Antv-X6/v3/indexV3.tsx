@@ -71,8 +71,14 @@ import { useIsAgentFlow } from '@/pages/Antv-X6/v3/flowKind/useFlowKind';
 import { workflowLogger } from '@/utils/logger';
 import { workflowProxy } from './services/workflowProxyV3';
 import { workflowSaveService } from './services/WorkflowSaveService';
-import type { WorkflowDataV3 } from './types';
-import { calculateNodePreviousArgs } from './utils/variableReferenceV3';
+import type { NodePreviousAndArgMap, WorkflowDataV3 } from './types';
+import { variableReferenceCache } from './utils/variableReferenceCacheV3';
+import { isEmptyReferenceDelta } from './utils/variableReferenceDeltaV3';
+import { variableReferenceMetrics } from './utils/variableReferenceMetricsV3';
+import {
+  invalidateNodeReferences,
+  queryNodePreviousArgs,
+} from './utils/variableReferenceQueryV3';
 
 export interface WorkflowV3Props {
   /** 外部注入的 workflowId，优先于路由参数（用于在 EditAgent 内嵌时复用） */
@@ -195,6 +201,12 @@ const Workflow: React.FC<WorkflowV3Props> = ({
   const graphRef = useRef<GraphContainerRef>(null);
   const graphInstanceRef = useRef<Graph | null>(null); // Persistent graph ref for undo/redo and unmount.
   const preventGetReference = useRef<number>(0);
+  // Node and graph version of the reference result currently in the model.
+  const heldReferenceRef = useRef<{
+    workflowId: number;
+    nodeId: number;
+    version: number;
+  } | null>(null);
   const timerRef = useRef<NodeJS.Timeout>();
   const isNodeSwitchingRef = useRef(false);
   // V3:  -  hooks
@@ -279,6 +291,90 @@ const Workflow: React.FC<WorkflowV3Props> = ({
     }
   }, [foldWrapItem]);
 
+  const setReferenceResult = (
+    nodeId: number,
+    result: NodePreviousAndArgMap,
+  ) => {
+    const held = heldReferenceRef.current;
+    heldReferenceRef.current = {
+      workflowId,
+      nodeId,
+      version: variableReferenceCache.getVersion(workflowId),
+    };
+    if (held?.workflowId === workflowId && held.nodeId === nodeId) {
+      const update = variableReferenceCache.getDelta(
+        workflowId,
+        nodeId,
+        held.version,
+      );
+      // The model already holds this result; skip the update and re-render.
+      if (update && !update.full && isEmptyReferenceDelta(update)) return;
+    }
+
+    if (result && result.previousNodes && result.previousNodes.length) {
+      setReferenceList({
+        previousNodes: result.previousNodes as any,
+        innerPreviousNodes: result.innerPreviousNodes as any,
+        argMap: result.argMap as any,
+      });
+    } else {
+      setReferenceList({
+        previousNodes: [],
+        innerPreviousNodes: [],
+        argMap: {},
+      });
+    }
+  };
+
+  // Collect the latest workflow data for reference calculation (canvas first, proxy as fallback).
+  const collectReferenceWorkflowData = (): WorkflowDataV3 | null => {
+    let nodeList: any[] = [];
+    let edgeList: any[] = [];
+
+    const graph = graphRef.current?.getGraphRef?.();
+    if (graph) {
+      // Node data is read as-is: positions do not affect references, so
+      // only Loop nodes get a shallow copy with their current children.
+      nodeList = graph.getNodes().map((n: any) => {
+        const data = n.getData();
+        if (data.type !== NodeTypeEnum.Loop) return data;
+
+        const children = n.getChildren();
+        if (!children || children.length === 0) return data;
+        return {
+          ...data,
+          innerNodes: children
+            .filter((child: any) => child.isNode && child.isNode())
+            .map((child: any) => child.getData()),
+        };
+      });
+
+      edgeList = graph.getEdges().map((e: any) => ({
+        id: e.id,
+        source: e.getSourceCellId(),
+        target: e.getTargetCellId(),
+        sourcePort: (e.getSource() as any)?.port,
+        targetPort: (e.getTarget() as any)?.port,
+      }));
+    } else {
+      //  workflowProxy
+      const fullData = workflowProxy.getFullWorkflowData();
+      nodeList = fullData?.nodes || graphParams.nodeList;
+      edgeList = fullData?.edges || graphParams.edgeList;
+    }
+
+    if (!nodeList || nodeList.length === 0) {
+      return null;
+    }
+
+    return {
+      workflowId: workflowId,
+      nodes: nodeList as any,
+      edges: edgeList as any,
+      systemVariables: workflowProxy.getSystemVariables(),
+    };
+  };
+
   // Get current node reference args (V3 frontend calculation).
   const getReference = async (id: number): Promise<boolean> => {
     console.log(
@@ -291,59 +387,18 @@ const Workflow: React.FC<WorkflowV3Props> = ({
       return false;
 
     // V3 frontend calculation path.
+    const trace = variableReferenceMetrics.startQuery(workflowId, id);
     try {
-      let nodeList: any[] = [];
-      let edgeList: any[] = [];
-
-      const graph = graphRef.current?.getGraphRef?.();
-      if (graph) {
-        nodeList = graph.getNodes().map((n: any) => {
-          const data = n.getData();
-          const position = n.getPosition();
-          const size = n.getSize();
-
-          //  Loop ， innerNodes
-          let innerNodes = data.innerNodes;
-          if (data.type === NodeTypeEnum.Loop) {
-            const children = n.getChildren();
-            if (children && children.length > 0) {
-              innerNodes = children
-                .filter((child: any) => child.isNode && child.isNode())
-                .map((child: any) => child.getData());
-            }
-          }
-
-          return {
-            ...data,
-            innerNodes,
-            nodeConfig: {
-              ...data.nodeConfig,
-              extension: {
-                ...data.nodeConfig?.extension,
-                x: position.x,
-                y: position.y,
-                width: size.width,
-                height: size.height,
-              },
-            },
-          };
-        });
-
-        edgeList = graph.getEdges().map((e: any) => ({
-          id: e.id,
-          source: e.getSourceCellId(),
-          target: e.getTargetCellId(),
-          sourcePort: (e.getSource() as any)?.port,
-          targetPort: (e.getTarget() as any)?.port,
-        }));
-      } else {
-        //  workflowProxy
-        const fullData = workflowProxy.getFullWorkflowData();
-        nodeList = fullData?.nodes || graphParams.nodeList;
-        edgeList = fullData?.edges || graphParams.edgeList;
-      }
-
-      if (!nodeList || nodeList.length === 0) {
+      // Cached per graph version; on a miss the result is computed from the
+      // snapshot shared with the publish-time reference validation.
+      const result = queryNodePreviousArgs(
+        workflowId,
+        id,
+        collectReferenceWorkflowData,
+        trace,
+      );
+      if (!result) {
+        heldReferenceRef.current = null;
         setReferenceList({
           previousNodes: [],
           innerPreviousNodes: [],
@@ -352,32 +407,13 @@ const Workflow: React.FC<WorkflowV3Props> = ({
         return false;
       }
 
-      const workflowData: WorkflowDataV3 = {
-        workflowId: workflowId,
-        nodes: nodeList as any,
-        edges: edgeList as any,
-        systemVariables: workflowProxy.getSystemVariables(),
-      };
-
-      const result = calculateNodePreviousArgs(id, workflowData);
-
-      if (result && result.previousNodes && result.previousNodes.length) {
-        setReferenceList({
-          previousNodes: result.previousNodes as any,
-          innerPreviousNodes: result.innerPreviousNodes as any,
-          argMap: result.argMap as any,
-        });
-      } else {
-        setReferenceList({
-          previousNodes: [],
-          innerPreviousNodes: [],
-          argMap: {},
-        });
-      }
+      setReferenceResult(id, result);
       return true;
     } catch (error) {
       console.error('[V3] calculate variable references failed:', error);
       return false;
+    } finally {
+      trace?.end();
     }
   };
   const getNodeConfig = async (id: number) => {
@@ -542,6 +578,7 @@ const Workflow: React.FC<WorkflowV3Props> = ({
       const fn = getDetailsRef.current;
       if (fn) await fn();
     },
+    collectReferenceWorkflowData,
   });
 
   const onSaveWorkflow = useCallback(
@@ -1060,7 +1097,8 @@ const Workflow: React.FC<WorkflowV3Props> = ({
 
   const handleGraphUpdateByFormData = useCallback(
     (changedValues: any, fullFormValues: any) => {
-      const nodeId = getWorkflow('drawerForm').id;
+      const drawerForm = getWorkflow('drawerForm');
+      const nodeId = drawerForm.id;
       if (!graphRef.current || !nodeId || nodeId === FoldFormIdEnum.empty)
         return;
 
@@ -1069,8 +1107,11 @@ const Workflow: React.FC<WorkflowV3Props> = ({
         fullFormValues,
         nodeId.toString(),
       );
+      // Form edits change canvas data without a proxy mutation, so the cached
+      // references of this node and its downstream are dropped here.
+      invalidateNodeReferences(workflowId, drawerForm);
     },
-    [graphRef.current],
+    [graphRef.current, workflowId],
   );
 
   const throttledHandleGraphUpdate = useThrottledCallback(
@@ -7,11 +7,18 @@
  * - 边增删
  * - 数据一致性验证
  */
-import { NodeShapeEnum, NodeTypeEnum } from '@/types/enums/common';
+import {
+  DataTypeEnum,
+  NodeShapeEnum,
+  NodeTypeEnum,
+} from '@/types/enums/common';
 import { ConditionBranchTypeEnum } from '@/types/enums/node';
 import type { ChildNode } from '@/types/interfaces/graph';
 import { afterEach, beforeEach, describe, expect, it, vi } from 'vitest';
 import type { EdgeV3, WorkflowDataV3 } from '../../types/interfaces';
+import { variableReferenceCache } from '../../utils/variableReferenceCacheV3';
+import { variableReferenceIndex } from '../../utils/variableReferenceIndexV3';
+import { compileReferenceSnapshot } from '../../utils/variableReferenceV3';
 import WorkflowProxyV3 from '../workflowProxyV3';
 
 // ========== 测试数据 ==========
@@ -295,6 +302,66 @@ describe('WorkflowProxyV3', () => {
       expect(proxy.getNodes()).toHaveLength(4);
       expect(proxy.getNodeById(999)?.name).toBe('Variable node');
     });
+
+    it('should keep reference caches when only the position changes', () => {
+      const { workflowId } = proxy.getFullWorkflowData()!;
+      const node = proxy.getNodeById(2)!;
+      const version = variableReferenceCache.getVersion(workflowId);
+
+      proxy.updateNode({
+        ...node,
+        nodeConfig: { ...node.nodeConfig, extension: { x: 999, y: 999 } },
+      });
+      expect(variableReferenceCache.getVersion(workflowId)).toBe(version);
+
+      proxy.updateNode({ ...node, name: 'Renamed' });
+      expect(variableReferenceCache.getVersion(workflowId)).toBe(version + 1);
+    });
+
+    it('should invalidate downstream nodes when outputs or name change', () => {
+      const { workflowId } = proxy.getFullWorkflowData()!;
+      // 缓存所有节点的结果，并以当前图作为按下游失效的依赖图
+      const cacheAllNodes = () => {
+        variableReferenceCache.setSnapshot(
+          workflowId,
+          compileReferenceSnapshot(proxy.getFullWorkflowData()!),
+        );
+        [1, 2, 3].forEach((id) =>
+          variableReferenceCache.set(workflowId, id, {
+            previousNodes: [],
+            innerPreviousNodes: [],
+            argMap: {},
+          }),
+        );
+      };
+      const cachedNodeIds = () =>
+        [1, 2, 3].filter((id) => variableReferenceCache.get(workflowId, id));
+
+      cacheAllNodes();
+      const node = proxy.getNodeById(2)!;
+      proxy.updateNode({
+        ...node,
+        nodeConfig: {
+          ...node.nodeConfig,
+          outputArgs: [
+            {
+              name: 'output',
+              dataType: DataTypeEnum.String,
+              description: '',
+              require: false,
+              systemVariable: false,
+              bindValue: '',
+              key: 'output',
+            },
+          ],
+        },
+      });
+      expect(cachedNodeIds()).toEqual([1]);
+
+      cacheAllNodes();
+      proxy.updateNode({ ...proxy.getNodeById(3)!, name: 'Renamed End' });
+      expect(cachedNodeIds()).toEqual([1, 2]);
+    });
   });
 
   describe('Node deletion', () => {
@@ -328,6 +395,53 @@ describe('WorkflowProxyV3', () => {
       expect(result.success).toBe(false);
       expect(result.message).toContain('does not exist');
     });
+
+    it('should drop reference index entries of loop inner nodes', () => {
+      const referenceToStart = {
+        nodeConfig: {
+          inputArgs: [
+            {
+              name: 'query',
+              dataType: DataTypeEnum.String,
+              description: '',
+              require: false,
+              systemVariable: false,
+              bindValueType: 'Reference' as const,
+              bindValue: '1.query',
+              key: 'query',
+            },
+          ],
+        },
+      };
+      // Start -> Loop[Code, Loop[Code]]，嵌套循环的内部节点排在其循环节点之前
+      proxy.initialize({
+        workflowId: 12347,
+        nodes: [
+          createMockNode({ id: 1, nextNodeIds: [2] }),
+          createMockNode({ id: 2, type: NodeTypeEnum.Loop }),
+          createMockNode({
+            id: 5,
+            type: NodeTypeEnum.Code,
+            loopNodeId: 4,
+            ...referenceToStart,
+          }),
+          createMockNode({
+            id: 3,
+            type: NodeTypeEnum.Code,
+            loopNodeId: 2,
+            ...referenceToStart,
+          }),
+          createMockNode({ id: 4, type: NodeTypeEnum.Loop, loopNodeId: 2 }),
+        ],
+        edges: [{ source: '1', target: '2' }],
+      });
+      expect(proxy.getLoopInnerNodeIds(2).sort()).toEqual([3, 4, 5]);
+      expect(variableReferenceIndex.getReferencesToNode(1)).toHaveLength(2);
+
+      proxy.deleteNode(2);
+
+      expect(variableReferenceIndex.getReferencesToNode(1)).toEqual([]);
+    });
   });
 
   describe('Node copy', () => {
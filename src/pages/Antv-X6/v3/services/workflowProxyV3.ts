@@ -22,6 +22,7 @@ import { AnswerTypeEnum, NodeTypeEnum } from '@/types/enums/common';
 import type { ChildNode, Edge } from '@/types/interfaces/graph';
 import { workflowLogger } from '@/utils/logger';
 import cloneDeep from 'lodash/cloneDeep';
+import isEqual from 'lodash/isEqual';
 import { prepareNodeForBackendSerialize } from '../agentFlow/adapters/qaConfigAdapter';
 import { serializeNodeForBackend } from '../agentFlow/nodeTypeMapping';
 import { extensionRegistry } from '../extensions/registry';
@@ -32,6 +33,9 @@ import type {
   WorkflowDataV3,
 } from '../types/interfaces';
 import { generateFallbackNodeId } from '../utils/nodeUtils';
+import { variableReferenceCache } from '../utils/variableReferenceCacheV3';
+import { variableReferenceIndex } from '../utils/variableReferenceIndexV3';
+import { collectNextNodeIds } from '../utils/variableReferenceGraphV3';
 
 // ==================== 工具函数 ====================
 
@@ -70,6 +74,79 @@ function toNodeId(id: string | number | undefined | null): number {
   return numId;
 }
 
+/**
+ * 获取节点变更后需要失效变量引用缓存的节点：自身、新的下游节点和所属循环节点
+ */
+function getAffectedNodeIds(node: ChildNode): number[] {
+  const nodeIds = [toNodeId(node.id), ...collectNextNodeIds(node)];
+  if (node.loopNodeId) {
+    nodeIds.push(toNodeId(node.loopNodeId));
+  }
+  return nodeIds;
+}
+
+/**
+ * 获取循环节点内部的所有节点 ID（含嵌套循环的内部节点）
+ */
+function collectLoopInnerNodeIds(
+  nodes: ChildNode[],
+  loopNodeId: number,
+): number[] {
+  const ids = new Set([loopNodeId]);
+  // 内部节点可能排在其所属循环节点之前，重复扫描直到不再新增
+  let size = 0;
+  while (ids.size !== size) {
+    size = ids.size;
+    nodes.forEach((node) => {
+      if (node.loopNodeId && ids.has(toNodeId(node.loopNodeId))) {
+        ids.add(toNodeId(node.id));
+      }
+    });
+  }
+  ids.delete(loopNodeId);
+  return [...ids];
+}
+
+// 影响变量引用计算的节点字段，nodeConfig 另行逐项比较
+const REFERENCE_NODE_FIELDS = [
+  'type',
+  'name',
+  'icon',
+  'loopNodeId',
+  'nextNodeIds',
+  'innerStartNodeId',
+  'innerEndNodeId',
+] as const;
+
+/**
+ * 判断节点更新是否可能改变变量引用结果
+ * 拖动、缩放只修改 nodeConfig.extension 中的位置和尺寸，
+ * 不需要失效引用缓存和反向索引
+ */
+function isReferenceRelevantChange(
+  previous: ChildNode,
+  next: ChildNode,
+): boolean {
+  if (
+    REFERENCE_NODE_FIELDS.some(
+      (field) => !isEqual(previous[field], next[field]),
+    )
+  ) {
+    return true;
+  }
+
+  const previousConfig = (previous.nodeConfig || {}) as Record<string, unknown>;
+  const nextConfig = (next.nodeConfig || {}) as Record<string, unknown>;
+  const keys = new Set([
+    ...Object.keys(previousConfig),
+    ...Object.keys(nextConfig),
+  ]);
+  keys.delete('extension');
+  return [...keys].some(
+    (key) => !isEqual(previousConfig[key], nextConfig[key]),
+  );
+}
+
 // ==================== 类型定义 ====================
 
 export interface PendingUpdate {
@@ -113,6 +190,8 @@ class WorkflowProxyV3 {
     this.pendingUpdates = [];
     this.isDirty = false;
 
+    variableReferenceCache.invalidateWorkflow(data.workflowId);
+    variableReferenceIndex.rebuild(this.workflowData.nodes);
     this.notify('mutation');
 
     workflowLogger.log(
@@ -140,6 +219,8 @@ class WorkflowProxyV3 {
    * 重置代理状态
    */
   reset(): void {
+    this.invalidateReferences();
+    variableReferenceIndex.clear();
     this.workflowData = null;
     this.workflowInfo = null;
     this.pendingUpdates = [];
@@ -342,6 +423,17 @@ class WorkflowProxyV3 {
     return node ? cloneDeep(node) : null;
   }
 
+  /**
+   * 获取循环节点内部的所有节点 ID（含嵌套循环的内部节点）
+   */
+  getLoopInnerNodeIds(loopNodeId: number): number[] {
+    if (!this.workflowData) return [];
+    return collectLoopInnerNodeIds(
+      this.workflowData.nodes,
+      toNodeId(loopNodeId),
+    );
+  }
+
   /**
    * 检查是否有未保存的更改
    */
@@ -363,8 +455,10 @@ class WorkflowProxyV3 {
     const index = this.workflowData.nodes.findIndex(
       (n) => toNodeId(n.id) === toNodeId(node.id),
     );
+    const updated = cloneDeep(node);
+    const previous = index >= 0 ? this.workflowData.nodes[index] : undefined;
     if (index >= 0) {
-      this.workflowData.nodes[index] = cloneDeep(node);
+      this.workflowData.nodes[index] = updated;
       workflowLogger.log(
         '[Proxy] Node updated successfully:',
         node.id,
@@ -372,9 +466,14 @@ class WorkflowProxyV3 {
       );
     } else {
       // 节点不存在，作为新增处理
-      this.workflowData.nodes.push(cloneDeep(node));
+      this.workflowData.nodes.push(updated);
       workflowLogger.log('[Proxy] Node added via update:', node.id, node.name);
     }
+    const referenceChanged =
+      !previous || isReferenceRelevantChange(previous, updated);
+    if (referenceChanged) {
+      variableReferenceIndex.updateNode(updated);
+    }
 
     this.recordUpdate({
       type: 'node',
@@ -383,6 +482,9 @@ class WorkflowProxyV3 {
       timestamp: Date.now(),
     });
     this.markDirty();
+    if (referenceChanged) {
+      this.invalidateReferences(getAffectedNodeIds(node));
+    }
     this.notify('mutation');
 
     return { success: true, data: this.getFullWorkflowData()! };
@@ -405,7 +507,9 @@ class WorkflowProxyV3 {
       return { success: false, message: `Node ${node.id} already exists` };
     }
 
-    this.workflowData.nodes.push(cloneDeep(node));
+    const added = cloneDeep(node);
+    this.workflowData.nodes.push(added);
+    variableReferenceIndex.updateNode(added);
     this.recordUpdate({
       type: 'node',
       action: 'add',
@@ -413,6 +517,7 @@ class WorkflowProxyV3 {
       timestamp: Date.now(),
     });
     this.markDirty();
+    this.invalidateReferences(getAffectedNodeIds(node));
     this.notify('mutation');
 
     return { success: true, data: this.getFullWorkflowData()! };
@@ -435,6 +540,14 @@ class WorkflowProxyV3 {
     }
 
     const deleted = this.workflowData.nodes.splice(index, 1)[0];
+    variableReferenceIndex.removeNode(toNodeId(nodeId));
+    // 循环内部节点随循环节点一起从画布删除，同时移除它们作为引用方的条目
+    if (deleted.type === NodeTypeEnum.Loop) {
+      collectLoopInnerNodeIds(
+        [...this.workflowData.nodes, ...(deleted.innerNodes || [])],
+        toNodeId(nodeId),
+      ).forEach((id) => variableReferenceIndex.removeNode(id));
+    }
 
     // 同时删除与该节点相关的边
     this.workflowData.edges = this.workflowData.edges.filter(
@@ -525,6 +638,7 @@ class WorkflowProxyV3 {
       timestamp: Date.now(),
     });
     this.markDirty();
+    this.invalidateReferences([toNodeId(nodeId)]);
     this.notify('mutation');
 
     return { success: true, data: this.getFullWorkflowData()! };
@@ -582,6 +696,7 @@ class WorkflowProxyV3 {
     // Inherit loopNodeId from source.
 
     this.workflowData.nodes.push(newNode);
+    variableReferenceIndex.updateNode(newNode);
 
     this.recordUpdate({
       type: 'node',
@@ -590,6 +705,7 @@ class WorkflowProxyV3 {
       timestamp: Date.now(),
     });
     this.markDirty();
+    this.invalidateReferences(getAffectedNodeIds(newNode));
     this.notify('mutation');
 
     return { success: true, data: this.getFullWorkflowData()!, newNode };
@@ -899,6 +1015,7 @@ class WorkflowProxyV3 {
       timestamp: Date.now(),
     });
     this.markDirty();
+    this.invalidateReferences([targetNodeId]);
     this.notify('mutation');
 
     return { success: true, data: this.getFullWorkflowData()! };
@@ -979,6 +1096,7 @@ class WorkflowProxyV3 {
       timestamp: Date.now(),
     });
     this.markDirty();
+    this.invalidateReferences([targetNodeId]);
     this.notify('mutation');
 
     return { success: true, data: this.getFullWorkflowData()! };
@@ -1003,6 +1121,7 @@ class WorkflowProxyV3 {
 
     node.nextNodeIds = [...nextNodeIds];
     this.markDirty();
+    this.invalidateReferences([toNodeId(nodeId), ...nextNodeIds]);
     this.notify('mutation');
 
     return { success: true, data: this.getFullWorkflowData()! };
@@ -1010,6 +1129,20 @@ class WorkflowProxyV3 {
 
   // ==================== 内部方法 ====================
 
+  /**
+   * 失效变量引用缓存
+   * @param nodeIds 变更节点 ID，不传则失效整个工作流
+   */
+  private invalidateReferences(nodeIds?: number[]): void {
+    if (!this.workflowData) return;
+    const { workflowId } = this.workflowData;
+    if (nodeIds) {
+      variableReferenceCache.invalidateNodes(workflowId, nodeIds);
+    } else {
+      variableReferenceCache.invalidateWorkflow(workflowId);
+    }
+  }
+
   /**
    * 记录待发送的更新
    */
@@ -1307,11 +1440,14 @@ class WorkflowProxyV3 {
 
     this.workflowData.nodes = mergedNodes;
     this.workflowData.edges = cloneDeep(edges) as EdgeV3[];
+    // 画布同步会整体替换节点对象，按节点列表重建（与参数数量成线性）
+    variableReferenceIndex.rebuild(mergedNodes);
 
     if (shouldMarkDirty) {
       this.markDirty();
     }
 
+    this.invalidateReferences();
     this.notify('mutation');
 
     // console.log('[V3 Proxy] syncFromGraph completed. Processed', edges.length, 'edges');
@@ -2,6 +2,20 @@
  * V3 工作流工具函数
  */
 
+import type { ChildNode } from '@/types/interfaces/graph';
+import type { NodeConfig } from '@/types/interfaces/node';
+import { cloneDeep, mergeObject } from '@/utils/common';
+
+// Loop 节点的这些属性是顶层属性，即使节点数据中原本不存在也不写入 nodeConfig
+const LOOP_TOP_LEVEL_PROPS = [
+  'loopType',
+  'loopTimes',
+  'inputArgs',
+  'outputArgs',
+  'variableArgs',
+  'exceptionHandleConfig',
+];
+
 /**
  * 生成备用节点 ID
  * 规则： 时间戳 + 工作流 ID 前三位（不足补 0，超过截取）
@@ -17,3 +31,39 @@ export function generateFallbackNodeId(workflowId: number): number {
   }
   return Number(Date.now() + prefix);
 }
+
+/**
+ * 将表单变更合并到节点数据，返回新的节点数据
+ * 节点已有的顶层属性直接覆盖，其余属性合并到 nodeConfig
+ * @param node 当前节点数据
+ * @param changedValues 表单本次变更的字段
+ * @param fullFormValues 表单全部字段的当前值
+ */
+export function mergeFormValuesIntoNode(
+  node: ChildNode,
+  changedValues: Record<string, any>,
+  fullFormValues: Record<string, any>,
+): ChildNode {
+  const { nodeConfig, ...rest } = node;
+
+  // 分离 top-level 属性和 nodeConfig 属性
+  const topLevelChanges: Record<string, any> = {};
+  const configChanges: Record<string, any> = {};
+  Object.keys(changedValues).forEach((key) => {
+    if (!key) return;
+    const isTopLevel =
+      key in rest ||
+      (node.type === 'Loop' && LOOP_TOP_LEVEL_PROPS.includes(key));
+    if (isTopLevel) {
+      topLevelChanges[key] = fullFormValues[key];
+    } else {
+      configChanges[key] = fullFormValues[key];
+    }
+  });
+
+  return {
+    ...rest,
+    ...topLevelChanges,
+    nodeConfig: mergeObject(cloneDeep(nodeConfig), configChanges) as NodeConfig,
+  } as ChildNode;
+}
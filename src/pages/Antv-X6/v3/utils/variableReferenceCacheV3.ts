@@ -0,0 +1,482 @@
+/**
+ * V3 变量引用结果缓存
+ *
+ * 缓存每个节点的上级节点计算结果（NodePreviousAndArgMap）：
+ * 1. 缓存键由 workflowId、图版本号和 nodeId 组成
+ * 2. 按条目数和估算内存权重双重限制，超出时按 LRU 淘汰
+ * 3. 节点配置或连线变更时只失效受影响节点（变更节点及其下游）的条目，
+ *    其余条目迁移到新版本继续使用
+ * 4. 记录命中/未命中/淘汰/失效计数，便于评估缓存容量
+ * 5. 每个工作流保存一份当前图版本的只读快照（ReferenceSnapshot），
+ *    所有节点的查询和批量校验共享该快照（getOrCompileSnapshot 保证同一版本
+ *    只构建一次），图变更时随版本一起丢弃
+ * 6. 每个工作流保存节点参数索引（NodeArgIndexCache），编译新版本快照时
+ *    复用未变更节点的参数索引，节点变更时只移除该节点的条目
+ * 7. 被失效的结果保留最近几个版本，调用方传入已持有的图版本号时
+ *    只返回相对该版本的增量（getDelta），版本过旧时返回完整结果。
+ *    历史结果单独限制权重，超出时丢弃最早记录的节点；整个工作流失效时直接丢弃
+ */
+
+import type { NodePreviousAndArgMap } from '../types';
+import {
+  diffReferenceResults,
+  type ReferenceResultUpdateV3,
+} from './variableReferenceDeltaV3';
+import {
+  getCompiledDependentIds,
+  type CompiledReferenceGraph,
+} from './variableReferenceGraphV3';
+import type {
+  NodeArgIndexCache,
+  ReferenceSnapshot,
+} from './variableReferenceV3';
+
+export interface VariableReferenceCacheOptions {
+  // 最大缓存条目数
+  maxEntries?: number;
+  // 最大估算权重（约等于缓存中参数对象的数量）
+  maxWeight?: number;
+  // 每个节点保留的已失效历史结果数，用于计算增量
+  maxDeltaHistory?: number;
+  // 历史结果的最大估算权重，与 maxWeight 分别计算
+  maxHistoryWeight?: number;
+}
+
+export interface VariableReferenceCacheStats {
+  hits: number;
+  misses: number;
+  // 因容量限制被淘汰的条目数
+  evictions: number;
+  // 因图变更被失效的条目数
+  invalidations: number;
+  // 快照构建次数
+  snapshotBuilds: number;
+  // 复用已有快照的次数
+  snapshotReuses: number;
+  entries: number;
+  weight: number;
+  // 历史结果的估算权重
+  historyWeight: number;
+}
+
+interface CacheEntry {
+  workflowId: number;
+  version: number;
+  // 结果计算时的图版本号，迁移到新版本时保持不变
+  computedAt: number;
+  nodeId: number;
+  value: NodePreviousAndArgMap;
+  weight: number;
+}
+
+/**
+ * 已失效的历史结果，在图版本 [from, to) 内有效
+ */
+interface HistoryEntry {
+  from: number;
+  to: number;
+  value: NodePreviousAndArgMap;
+  weight: number;
+}
+
+const DEFAULT_MAX_ENTRIES = 500;
+const DEFAULT_MAX_WEIGHT = 200000;
+const DEFAULT_MAX_DELTA_HISTORY = 4;
+const DEFAULT_MAX_HISTORY_WEIGHT = DEFAULT_MAX_WEIGHT / 4;
+
+function buildCacheKey(
+  workflowId: number,
+  version: number,
+  nodeId: number,
+): string {
+  return `${workflowId}:${version}:${nodeId}`;
+}
+
+function buildHistoryKey(workflowId: number, nodeId: number): string {
+  return `${workflowId}:${nodeId}`;
+}
+
+/**
+ * 估算结果占用的权重：参数映射条目 + 上级节点输出参数数量
+ */
+function estimateWeight(value: NodePreviousAndArgMap): number {
+  let weight = Object.keys(value.argMap).length;
+  value.previousNodes.forEach((node) => {
+    weight += 1 + (node.outputArgs?.length || 0);
+  });
+  value.innerPreviousNodes.forEach((node) => {
+    weight += 1 + (node.outputArgs?.length || 0);
+  });
+  return weight;
+}
+
+export class VariableReferenceCacheV3 {
+  private entries = new Map<string, CacheEntry>();
+  private versions = new Map<number, number>();
+  private snapshots = new Map<number, ReferenceSnapshot>();
+  // 最近一次编译的依赖图，快照失效后保留到下次编译，用于按下游失效
+  private dependencyGraphs = new Map<number, CompiledReferenceGraph>();
+  private nodeArgIndexes = new Map<number, NodeArgIndexCache>();
+  private history = new Map<string, HistoryEntry[]>();
+  private totalWeight = 0;
+  private historyWeight = 0;
+  private maxEntries: number;
+  private maxWeight: number;
+  private maxDeltaHistory: number;
+  private maxHistoryWeight: number;
+  private stats = {
+    hits: 0,
+    misses: 0,
+    evictions: 0,
+    invalidations: 0,
+    snapshotBuilds: 0,
+    snapshotReuses: 0,
+  };
+
+  constructor(options: VariableReferenceCacheOptions = {}) {
+    this.maxEntries = options.maxEntries ?? DEFAULT_MAX_ENTRIES;
+    this.maxWeight = options.maxWeight ?? DEFAULT_MAX_WEIGHT;
+    this.maxDeltaHistory =
+      options.maxDeltaHistory ?? DEFAULT_MAX_DELTA_HISTORY;
+    this.maxHistoryWeight =
+      options.maxHistoryWeight ?? DEFAULT_MAX_HISTORY_WEIGHT;
+  }
+
+  /**
+   * 获取工作流当前的图版本号
+   */
+  getVersion(workflowId: number): number {
+    return this.versions.get(workflowId) ?? 0;
+  }
+
+  /**
+   * 读取缓存（当前图版本）
+   */
+  get(workflowId: number, nodeId: number): NodePreviousAndArgMap | undefined {
+    const key = buildCacheKey(
+      workflowId,
+      this.getVersion(workflowId),
+      Number(nodeId),
+    );
+    const entry = this.entries.get(key);
+    if (!entry) {
+      this.stats.misses++;
+      return undefined;
+    }
+
+    // 刷新 LRU 顺序
+    this.entries.delete(key);
+    this.entries.set(key, entry);
+    this.stats.hits++;
+    return entry.value;
+  }
+
+  /**
+   * 读取工作流当前图版本的只读快照
+   */
+  getSnapshot(workflowId: number): ReferenceSnapshot | undefined {
+    return this.snapshots.get(workflowId);
+  }
+
+  /**
+   * 保存工作流当前图版本的只读快照，同时作为按下游失效的依赖图
+   * @returns 传入的快照，便于链式使用
+   */
+  setSnapshot(
+    workflowId: number,
+    snapshot: ReferenceSnapshot,
+  ): ReferenceSnapshot {
+    this.snapshots.set(workflowId, snapshot);
+    this.dependencyGraphs.set(workflowId, snapshot.graph);
+    return snapshot;
+  }
+
+  /**
+   * 获取工作流当前图版本的快照，不存在时构建并保存
+   *
+   * 单个节点的查询和整个工作流的校验都通过这里获取快照，
+   * 同一图版本只构建一次。快照按 workflowId 分别保存，不同工作流互不影响。
+   * @param workflowId 工作流 ID
+   * @param compile 构建快照，参数为该工作流的节点参数索引缓存；
+   *                返回 undefined 时不保存（如画布尚无节点）
+   */
+  getOrCompileSnapshot(
+    workflowId: number,
+    compile: (
+      nodeArgIndexCache: NodeArgIndexCache,
+    ) => ReferenceSnapshot | undefined,
+  ): ReferenceSnapshot | undefined {
+    const existing = this.snapshots.get(workflowId);
+    if (existing) {
+      this.stats.snapshotReuses++;
+      return existing;
+    }
+
+    const snapshot = compile(this.getNodeArgIndexCache(workflowId));
+    if (snapshot) {
+      this.stats.snapshotBuilds++;
+      this.setSnapshot(workflowId, snapshot);
+    }
+    return snapshot;
+  }
+
+  /**
+   * 获取工作流的节点参数索引缓存，编译快照时传入以复用未变更节点的参数索引
+   */
+  getNodeArgIndexCache(workflowId: number): NodeArgIndexCache {
+    let cache = this.nodeArgIndexes.get(workflowId);
+    if (!cache) {
+      cache = new Map();
+      this.nodeArgIndexes.set(workflowId, cache);
+    }
+    return cache;
+  }
+
+  /**
+   * 写入缓存
+   * @param workflowId 工作流 ID
+   * @param nodeId 节点 ID
+   * @param value 计算结果
+   */
+  set(workflowId: number, nodeId: number, value: NodePreviousAndArgMap): void {
+    const version = this.getVersion(workflowId);
+    const key = buildCacheKey(workflowId, version, Number(nodeId));
+    const weight = estimateWeight(value);
+    if (weight > this.maxWeight) return;
+
+    this.removeEntry(key);
+    this.entries.set(key, {
+      workflowId,
+      version,
+      computedAt: version,
+      nodeId: Number(nodeId),
+      value,
+      weight,
+    });
+    this.totalWeight += weight;
+    this.evictOverflow();
+  }
+
+  /**
+   * 获取节点当前结果相对于调用方已持有版本的增量
+   * @param workflowId 工作流 ID
+   * @param nodeId 节点 ID
+   * @param sinceVersion 调用方持有结果时的图版本号
+   * @returns 当前版本没有缓存结果时返回 undefined；
+   *          持有的版本过旧或未知时返回完整结果
+   */
+  getDelta(
+    workflowId: number,
+    nodeId: number,
+    sinceVersion: number,
+  ): ReferenceResultUpdateV3 | undefined {
+    const version = this.getVersion(workflowId);
+    const entry = this.entries.get(
+      buildCacheKey(workflowId, version, Number(nodeId)),
+    );
+    if (!entry) return undefined;
+
+    let base: NodePreviousAndArgMap | undefined;
+    if (sinceVersion >= entry.computedAt && sinceVersion <= version) {
+      base = entry.value;
+    } else {
+      base = this.history
+        .get(buildHistoryKey(workflowId, Number(nodeId)))
+        ?.find((item) => sinceVersion >= item.from && sinceVersion < item.to)
+        ?.value;
+    }
+
+    if (!base) {
+      return { full: true, version, result: entry.value };
+    }
+    return {
+      full: false,
+      fromVersion: sinceVersion,
+      version,
+      ...diffReferenceResults(base, entry.value),
+    };
+  }
+
+  /**
+   * 节点配置或连线变更后失效受影响的条目
+   *
+   * 受影响节点 = 变更节点沿依赖图可达的所有下游节点（含自身）。
+   * 依赖图取自最近一次编译的快照：两次查询之间的连续变更沿用同一依赖图，
+   * 仍只失效下游。旧依赖图中缺少的新连线不会漏失效——新连线的目标节点在
+   * 添加时已连同其下游一起失效。图版本号递增，未受影响的条目迁移到新版本；
+   * 从未编译过快照时退化为整个工作流失效。
+   * @param workflowId 工作流 ID
+   * @param nodeIds 变更节点 ID（连线变更传入目标节点，配置变更传入节点自身及新的下游节点）
+   */
+  invalidateNodes(workflowId: number, nodeIds: number[]): void {
+    // 参数索引只依赖节点自身配置，下游节点的条目继续复用
+    const nodeArgIndexCache = this.nodeArgIndexes.get(workflowId);
+    nodeIds.forEach((id) => nodeArgIndexCache?.delete(Number(id)));
+
+    // 快照对应旧版本的图，下次查询时重新编译
+    this.snapshots.delete(workflowId);
+
+    const graph = this.dependencyGraphs.get(workflowId);
+    if (!graph) {
+      this.migrateEntries(workflowId, () => false);
+      return;
+    }
+
+    const affected = getCompiledDependentIds(
+      graph,
+      nodeIds.map((id) => Number(id)),
+    );
+    this.migrateEntries(workflowId, (entry) => !affected.has(entry.nodeId));
+  }
+
+  /**
+   * 失效整个工作流的缓存
+   * 用于重置、重新加载工作流：被失效的结果和已有历史结果一并丢弃，
+   * 之后的查询不再计算增量
+   */
+  invalidateWorkflow(workflowId: number): void {
+    this.snapshots.delete(workflowId);
+    this.dependencyGraphs.delete(workflowId);
+    this.nodeArgIndexes.delete(workflowId);
+    this.migrateEntries(workflowId, () => false, false);
+
+    // 历史 key 为 workflowId:nodeId
+    const prefix = `${workflowId}:`;
+    [...this.history.keys()].forEach((key) => {
+      if (key.startsWith(prefix)) this.removeHistory(key);
+    });
+  }
+
+  /**
+   * 清空所有缓存和统计
+   */
+  clear(): void {
+    this.entries.clear();
+    this.versions.clear();
+    this.snapshots.clear();
+    this.dependencyGraphs.clear();
+    this.nodeArgIndexes.clear();
+    this.history.clear();
+    this.totalWeight = 0;
+    this.historyWeight = 0;
+    this.resetStats();
+  }
+
+  getStats(): VariableReferenceCacheStats {
+    return {
+      ...this.stats,
+      entries: this.entries.size,
+      weight: this.totalWeight,
+      historyWeight: this.historyWeight,
+    };
+  }
+
+  resetStats(): void {
+    this.stats = {
+      hits: 0,
+      misses: 0,
+      evictions: 0,
+      invalidations: 0,
+      snapshotBuilds: 0,
+      snapshotReuses: 0,
+    };
+  }
+
+  /**
+   * 递增工作流版本号，保留 keep 返回 true 的条目并迁移到新版本（保持 LRU 顺序）
+   * @param recordHistory 是否将被失效的条目记入历史结果
+   */
+  private migrateEntries(
+    workflowId: number,
+    keep: (entry: CacheEntry) => boolean,
+    recordHistory: boolean = true,
+  ): void {
+    const nextVersion = this.getVersion(workflowId) + 1;
+    this.versions.set(workflowId, nextVersion);
+
+    const migrated = new Map<string, CacheEntry>();
+    this.entries.forEach((entry, key) => {
+      if (entry.workflowId !== workflowId) {
+        migrated.set(key, entry);
+        return;
+      }
+      if (!keep(entry)) {
+        this.totalWeight -= entry.weight;
+        this.stats.invalidations++;
+        if (recordHistory) this.addHistory(entry, nextVersion);
+        return;
+      }
+      entry.version = nextVersion;
+      migrated.set(
+        buildCacheKey(workflowId, nextVersion, entry.nodeId),
+        entry,
+      );
+    });
+    this.entries = migrated;
+  }
+
+  /**
+   * 记录被失效的结果，每个节点最多保留 maxDeltaHistory 个版本，
+   * 记录的节点数不超过 maxEntries、权重不超过 maxHistoryWeight，
+   * 超出时丢弃最早记录的节点
+   */
+  private addHistory(entry: CacheEntry, invalidatedAt: number): void {
+    if (this.maxDeltaHistory <= 0 || entry.weight > this.maxHistoryWeight) {
+      return;
+    }
+    const key = buildHistoryKey(entry.workflowId, entry.nodeId);
+    const items = this.history.get(key) || [];
+    this.history.delete(key);
+    items.push({
+      from: entry.computedAt,
+      to: invalidatedAt,
+      value: entry.value,
+      weight: entry.weight,
+    });
+    this.historyWeight += entry.weight;
+    while (items.length > this.maxDeltaHistory) {
+      this.historyWeight -= items.shift()!.weight;
+    }
+    this.history.set(key, items);
+
+    const keys = this.history.keys();
+    while (
+      this.history.size > this.maxEntries ||
+      this.historyWeight > this.maxHistoryWeight
+    ) {
+      this.removeHistory(keys.next().value!);
+    }
+  }
+
+  private removeHistory(key: string): void {
+    this.history.get(key)?.forEach((item) => {
+      this.historyWeight -= item.weight;
+    });
+    this.history.delete(key);
+  }
+
+  private removeEntry(key: string): void {
+    const entry = this.entries.get(key);
+    if (entry) {
+      this.totalWeight -= entry.weight;
+      this.entries.delete(key);
+    }
+  }
+
+  private evictOverflow(): void {
+    const iterator = this.entries.keys();
+    while (
+      this.entries.size > this.maxEntries ||
+      this.totalWeight > this.maxWeight
+    ) {
+      const oldest = iterator.next();
+      if (oldest.done) break;
+      this.removeEntry(oldest.value);
+      this.stats.evictions++;
+    }
+  }
+}
+
+// 导出单例实例
+export const variableReferenceCache = new VariableReferenceCacheV3();
+export default VariableReferenceCacheV3;
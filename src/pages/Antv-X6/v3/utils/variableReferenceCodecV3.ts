@@ -0,0 +1,268 @@
+/**
+ * V3 变量引用结果紧凑编码
+ *
+ * argMap 的值与 previousNodes[].outputArgs 中的参数内容相同，
+ * 直接 JSON 序列化时每个参数（含完整 subArgs 子树）会被输出多次。
+ * 紧凑格式将所有参数放入一张参数表，内容相同的参数只输出一次：
+ * 1. 参数的 subArgs/children、上级节点的 outputArgs、argMap 的值均为参数表下标
+ * 2. 可以不输出 argMap，或只输出指定节点的 argMap 条目
+ * 3. serializeReferenceResult 分块生成 JSON 文本，不构建完整的紧凑对象
+ */
+
+import type {
+  ArgMap,
+  InputAndOutConfig,
+  NodePreviousAndArgMap,
+  PreviousList,
+} from '../types';
+
+/**
+ * 参数表中的参数，子参数为参数表下标
+ */
+export type CompactArgV3 = Omit<InputAndOutConfig, 'subArgs' | 'children'> & {
+  subArgs?: number[];
+  children?: number[];
+};
+
+/**
+ * 上级节点，输出参数为参数表下标
+ */
+export type CompactPreviousListV3 = Omit<PreviousList, 'outputArgs'> & {
+  outputArgs: number[];
+};
+
+export interface CompactReferenceResultV3 {
+  args: CompactArgV3[];
+  previousNodes: CompactPreviousListV3[];
+  innerPreviousNodes: CompactPreviousListV3[];
+  // 引用 key -> 参数表下标，omitArgMap 时不存在
+  argMap?: Record<string, number>;
+}
+
+export interface CompactEncodeOptions {
+  // 不输出 argMap
+  omitArgMap?: boolean;
+  // 只输出属于这些节点的 argMap 条目（按 key 开头的节点 ID 判断，含 -input / -var）
+  argMapNodeIds?: number[];
+}
+
+// 分块序列化时每块的目标长度（字符数）
+const DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+/**
+ * 参数表：按内容去重，子参数先于父参数加入
+ *
+ * 循环内节点 argMap 中的循环变量、循环输入与上级节点 outputArgs 中的参数
+ * 内容相同但不是同一对象，按对象引用去重会重复输出，因此以紧凑参数的
+ * JSON 文本作为去重 key；对象引用只用于跳过已处理过的参数。
+ */
+class ArgTable {
+  readonly args: CompactArgV3[] = [];
+  private indexes = new Map<InputAndOutConfig, number>();
+  private keys = new Map<string, number>();
+
+  add(arg: InputAndOutConfig): number {
+    const existing = this.indexes.get(arg);
+    if (existing !== undefined) return existing;
+
+    const compact = { ...arg } as CompactArgV3;
+    if (arg.subArgs) {
+      compact.subArgs = arg.subArgs.map((subArg) => this.add(subArg));
+    }
+    if (arg.children) {
+      compact.children = arg.children.map((child) => this.add(child));
+    }
+
+    const key = JSON.stringify(compact);
+    let index = this.keys.get(key);
+    if (index === undefined) {
+      index = this.args.length;
+      this.keys.set(key, index);
+      this.args.push(compact);
+    }
+    this.indexes.set(arg, index);
+    return index;
+  }
+
+  indexOf(arg: InputAndOutConfig): number {
+    return this.indexes.get(arg)!;
+  }
+
+  toCompactList(list: PreviousList[]): CompactPreviousListV3[] {
+    return list.map((item) => ({
+      ...item,
+      outputArgs: item.outputArgs.map((arg) => this.indexOf(arg)),
+    }));
+  }
+}
+
+/**
+ * 按选项筛选需要输出的 argMap 条目
+ */
+function selectArgMapKeys(
+  argMap: ArgMap,
+  options: CompactEncodeOptions,
+): string[] | undefined {
+  if (options.omitArgMap) return undefined;
+  const keys = Object.keys(argMap);
+  if (!options.argMapNodeIds) return keys;
+
+  const nodeIds = new Set(options.argMapNodeIds.map((id) => Number(id)));
+  // key 总是以节点 ID 开头，parseInt 会在第一个非数字字符处停止
+  return keys.filter((key) => nodeIds.has(parseInt(key, 10)));
+}
+
+function buildArgTable(
+  result: NodePreviousAndArgMap,
+  argMapKeys: string[] | undefined,
+): ArgTable {
+  const table = new ArgTable();
+  const addList = (list: PreviousList[]) =>
+    list.forEach((item) => item.outputArgs.forEach((arg) => table.add(arg)));
+  addList(result.previousNodes);
+  addList(result.innerPreviousNodes);
+  argMapKeys?.forEach((key) => table.add(result.argMap[key]));
+  return table;
+}
+
+/**
+ * 将结果编码为紧凑格式
+ * @param result 变量引用计算结果
+ * @param options 编码选项
+ */
+export function encodeReferenceResult(
+  result: NodePreviousAndArgMap,
+  options: CompactEncodeOptions = {},
+): CompactReferenceResultV3 {
+  const argMapKeys = selectArgMapKeys(result.argMap, options);
+  const table = buildArgTable(result, argMapKeys);
+
+  const compact: CompactReferenceResultV3 = {
+    args: table.args,
+    previousNodes: table.toCompactList(result.previousNodes),
+    innerPreviousNodes: table.toCompactList(result.innerPreviousNodes),
+  };
+  if (argMapKeys) {
+    compact.argMap = {};
+    argMapKeys.forEach((key) => {
+      compact.argMap![key] = table.indexOf(result.argMap[key]);
+    });
+  }
+  return compact;
+}
+
+/**
+ * 将紧凑格式还原为结果，参数表中同一参数的各个位置还原为同一对象
+ * 编码时省略的 argMap 还原为空对象
+ * @param compact 紧凑格式
+ */
+export function decodeReferenceResult(
+  compact: CompactReferenceResultV3,
+): NodePreviousAndArgMap {
+  // 先复制参数自身的字段，下标数组在第二遍替换为参数对象（null 等原值保留）
+  const args = compact.args.map(
+    (compactArg) => ({ ...compactArg }) as InputAndOutConfig,
+  );
+  compact.args.forEach(({ subArgs, children }, index) => {
+    const subArgList = Array.isArray(subArgs)
+      ? subArgs.map((i) => args[i])
+      : undefined;
+    if (subArgList) args[index].subArgs = subArgList;
+    if (Array.isArray(children)) {
+      // subArgs 与 children 相同时还原为同一数组
+      args[index].children =
+        subArgList && subArgs!.join() === children.join()
+          ? subArgList
+          : children.map((i) => args[i]);
+    }
+  });
+
+  const toList = (list: CompactPreviousListV3[]): PreviousList[] =>
+    list.map((item) => ({
+      ...item,
+      outputArgs: item.outputArgs.map((i) => args[i]),
+    }));
+
+  const argMap: ArgMap = {};
+  Object.entries(compact.argMap || {}).forEach(([key, index]) => {
+    argMap[key] = args[index];
+  });
+
+  return {
+    previousNodes: toList(compact.previousNodes),
+    innerPreviousNodes: toList(compact.innerPreviousNodes),
+    argMap,
+  };
+}
+
+/**
+ * 逐段生成紧凑格式的 JSON 文本：每个参数、每个节点、每个 argMap 条目一段
+ */
+function* generateJsonPieces(
+  result: NodePreviousAndArgMap,
+  table: ArgTable,
+  argMapKeys: string[] | undefined,
+): Generator<string, void, undefined> {
+  yield '{"args":[';
+  for (let i = 0; i < table.args.length; i++) {
+    yield (i > 0 ? ',' : '') + JSON.stringify(table.args[i]);
+  }
+
+  const lists = [
+    ['previousNodes', result.previousNodes],
+    ['innerPreviousNodes', result.innerPreviousNodes],
+  ] as const;
+  for (const [name, list] of lists) {
+    yield `],"${name}":[`;
+    const compactList = table.toCompactList(list);
+    for (let i = 0; i < compactList.length; i++) {
+      yield (i > 0 ? ',' : '') + JSON.stringify(compactList[i]);
+    }
+  }
+  yield ']';
+
+  if (argMapKeys) {
+    yield ',"argMap":{';
+    for (let i = 0; i < argMapKeys.length; i++) {
+      const key = argMapKeys[i];
+      const index = table.indexOf(result.argMap[key]);
+      yield `${i > 0 ? ',' : ''}${JSON.stringify(key)}:${index}`;
+    }
+    yield '}';
+  }
+  yield '}';
+}
+
+/**
+ * 分块序列化为紧凑格式的 JSON 文本
+ *
+ * 逐段生成 JSON 文本，累积到 chunkSize 后输出一块，不构建完整的紧凑对象；
+ * 拼接所有块后与 JSON.stringify(encodeReferenceResult(result, options)) 相同。
+ * @param result 变量引用计算结果
+ * @param options 编码选项
+ * @param chunkSize 每块的目标长度（字符数）
+ */
+export function* serializeReferenceResult(
+  result: NodePreviousAndArgMap,
+  options: CompactEncodeOptions = {},
+  chunkSize: number = DEFAULT_CHUNK_SIZE,
+): Generator<string, void, undefined> {
+  const argMapKeys = selectArgMapKeys(result.argMap, options);
+  const table = buildArgTable(result, argMapKeys);
+
+  let buffer = '';
+  for (const piece of generateJsonPieces(result, table, argMapKeys)) {
+    buffer += piece;
+    if (buffer.length >= chunkSize) {
+      yield buffer;
+      buffer = '';
+    }
+  }
+  if (buffer) yield buffer;
+}
+
+export default {
+  encodeReferenceResult,
+  decodeReferenceResult,
+  serializeReferenceResult,
+};
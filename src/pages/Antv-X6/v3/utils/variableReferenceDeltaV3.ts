@@ -0,0 +1,190 @@
+/**
+ * V3 变量引用结果增量
+ *
+ * 比较同一节点在两个图版本下的计算结果（NodePreviousAndArgMap），
+ * 只返回新增、删除和变更的上级节点及 argMap 条目：
+ * 1. 未变更节点的参数索引在版本间共享（见 NodeArgIndexCache），优先按引用比较，
+ *    引用不同时再按内容比较
+ * 2. 增量中带有当前结果的节点 ID 顺序，调用方可按此顺序合并持有的结果
+ * 3. 调用方持有的版本过旧、无法计算增量时，返回完整结果
+ */
+
+import isEqual from 'lodash/isEqual';
+import type {
+  ArgMap,
+  InputAndOutConfig,
+  NodePreviousAndArgMap,
+  PreviousList,
+} from '../types';
+
+/**
+ * 上级节点列表的增量
+ */
+export interface PreviousListDeltaV3 {
+  // 当前结果的节点 ID 顺序（按执行顺序排列），合并增量时按此顺序重建列表
+  order: number[];
+  // 节点顺序是否与调用方持有的结果不同
+  reordered: boolean;
+  added: PreviousList[];
+  changed: PreviousList[];
+  removed: number[];
+}
+
+/**
+ * argMap 的增量
+ */
+export interface ArgMapDeltaV3 {
+  added: ArgMap;
+  changed: ArgMap;
+  removed: string[];
+}
+
+/**
+ * 两个版本结果之间的增量
+ */
+export interface ReferenceResultDeltaV3 {
+  full: false;
+  // 调用方持有结果时的图版本号
+  fromVersion: number;
+  // 当前图版本号
+  version: number;
+  previousNodes: PreviousListDeltaV3;
+  innerPreviousNodes: PreviousListDeltaV3;
+  argMap: ArgMapDeltaV3;
+}
+
+/**
+ * 无法计算增量时返回的完整结果
+ */
+export interface ReferenceFullResultV3 {
+  full: true;
+  version: number;
+  result: NodePreviousAndArgMap;
+}
+
+export type ReferenceResultUpdateV3 =
+  | ReferenceResultDeltaV3
+  | ReferenceFullResultV3;
+
+function isSameArg(a: InputAndOutConfig, b: InputAndOutConfig): boolean {
+  return a === b || isEqual(a, b);
+}
+
+function isSamePreviousNode(a: PreviousList, b: PreviousList): boolean {
+  if (a === b) return true;
+  if (
+    a.name !== b.name ||
+    a.type !== b.type ||
+    a.icon !== b.icon ||
+    a.loopNodeId !== b.loopNodeId ||
+    a.sort !== b.sort ||
+    a.outputArgs.length !== b.outputArgs.length
+  ) {
+    return false;
+  }
+  return a.outputArgs.every((arg, index) =>
+    isSameArg(arg, b.outputArgs[index]),
+  );
+}
+
+function diffPreviousList(
+  previous: PreviousList[],
+  next: PreviousList[],
+): PreviousListDeltaV3 {
+  const previousById = new Map<number, PreviousList>(
+    previous.map((item) => [Number(item.id), item]),
+  );
+  const delta: PreviousListDeltaV3 = {
+    order: [],
+    reordered: false,
+    added: [],
+    changed: [],
+    removed: [],
+  };
+
+  next.forEach((item) => {
+    const id = Number(item.id);
+    delta.order.push(id);
+    const old = previousById.get(id);
+    if (!old) {
+      delta.added.push(item);
+    } else if (!isSamePreviousNode(old, item)) {
+      delta.changed.push(item);
+    }
+    previousById.delete(id);
+  });
+  delta.removed = [...previousById.keys()];
+  delta.reordered = delta.order.some(
+    (id, index) => Number(previous[index]?.id) !== id,
+  );
+  return delta;
+}
+
+function diffArgMap(previous: ArgMap, next: ArgMap): ArgMapDeltaV3 {
+  const delta: ArgMapDeltaV3 = { added: {}, changed: {}, removed: [] };
+  Object.keys(next).forEach((key) => {
+    const old = previous[key];
+    if (!old) {
+      delta.added[key] = next[key];
+    } else if (!isSameArg(old, next[key])) {
+      delta.changed[key] = next[key];
+    }
+  });
+  Object.keys(previous).forEach((key) => {
+    if (!next[key]) delta.removed.push(key);
+  });
+  return delta;
+}
+
+/**
+ * 计算同一节点两个版本结果之间的增量
+ * @param previous 调用方持有的结果
+ * @param next 当前结果
+ */
+export function diffReferenceResults(
+  previous: NodePreviousAndArgMap,
+  next: NodePreviousAndArgMap,
+): Pick<
+  ReferenceResultDeltaV3,
+  'previousNodes' | 'innerPreviousNodes' | 'argMap'
+> {
+  return {
+    previousNodes: diffPreviousList(
+      previous.previousNodes,
+      next.previousNodes,
+    ),
+    innerPreviousNodes: diffPreviousList(
+      previous.innerPreviousNodes,
+      next.innerPreviousNodes,
+    ),
+    argMap: diffArgMap(previous.argMap, next.argMap),
+  };
+}
+
+function isEmptyListDelta(delta: PreviousListDeltaV3): boolean {
+  return (
+    !delta.reordered &&
+    delta.added.length === 0 &&
+    delta.changed.length === 0 &&
+    delta.removed.length === 0
+  );
+}
+
+/**
+ * 判断增量是否为空（结果与调用方持有的结果一致，顺序也一致）
+ */
+export function isEmptyReferenceDelta(delta: ReferenceResultDeltaV3): boolean {
+  const { argMap } = delta;
+  return (
+    isEmptyListDelta(delta.previousNodes) &&
+    isEmptyListDelta(delta.innerPreviousNodes) &&
+    argMap.removed.length === 0 &&
+    Object.keys(argMap.added).length === 0 &&
+    Object.keys(argMap.changed).length === 0
+  );
+}
+
+export default {
+  diffReferenceResults,
+  isEmptyReferenceDelta,
+};
@@ -0,0 +1,529 @@
+/**
+ * V3 变量引用编译图
+ *
+ * 将工作流的节点/连线编译成紧凑的原始类型图结构，用于批量计算变量引用：
+ * 1. 节点 ID 映射为连续的整数下标
+ * 2. 正向/反向邻接表使用 CSR（offsets + targets）存储
+ * 3. 祖先/后继闭包按强连通分量拓扑序一次性计算，使用位集存储
+ *
+ * 与 variableReferenceV3 中的单节点 BFS 语义保持一致：
+ * - 反向图同时使用 nextNodeIds（含分支、异常处理流）和 edgeList
+ * - 祖先遍历跳过 Loop ← LoopEnd 迭代控制边
+ * - 后继（未来节点）遍历跳过 Loop → LoopStart 迭代控制边
+ */
+
+import { NodeTypeEnum } from '@/types/enums/common';
+import type { ChildNode, EdgeV3 } from '../types';
+
+const EXECUTE_EXCEPTION_FLOW = 'EXECUTE_EXCEPTION_FLOW';
+
+/**
+ * 编译后的引用图，构建完成后只读，可在多次查询之间共享
+ */
+export interface CompiledReferenceGraph {
+  // 节点数量
+  readonly size: number;
+  // 下标 -> 节点 ID
+  readonly ids: readonly number[];
+  // 下标 -> 节点
+  readonly nodes: readonly ChildNode[];
+  // 节点 ID -> 下标
+  readonly indexOf: ReadonlyMap<number, number>;
+  // 每个位集行占用的 32 位字数
+  readonly words: number;
+  // 原始前驱（未过滤迭代控制边），CSR
+  readonly predOffsets: Int32Array;
+  readonly predTargets: Int32Array;
+  // 依赖关系（后继节点 + 循环节点与其内部节点的双向关系），CSR，用于计算变更影响范围
+  readonly dependentOffsets: Int32Array;
+  readonly dependentTargets: Int32Array;
+  // 祖先闭包：第 i 行为经过滤反向边可达的节点集合（不含自身，除非处于环中）
+  readonly ancestors: Uint32Array;
+  // 后继闭包：第 i 行为经过滤正向边可达的节点集合（不含自身，除非处于环中）
+  readonly descendants: Uint32Array;
+  // 从 Start 节点开始的 DFS 先序序号，不可达为 -1（用于上级节点排序）
+  readonly executionOrder: Int32Array;
+}
+
+// ==================== 工具函数 ====================
+
+/**
+ * 获取节点的所有下游节点 ID
+ * 包含普通连线、条件/意图/问答分支连线和异常处理流连线，排除指向所属循环节点的连线
+ */
+export function collectNextNodeIds(node: ChildNode): number[] {
+  const nextIds = new Set<number>();
+
+  (node.nextNodeIds || []).forEach((id) => {
+    if (id !== node.loopNodeId) {
+      nextIds.add(id);
+    }
+  });
+
+  if (
+    node.type === NodeTypeEnum.Condition &&
+    node.nodeConfig?.conditionBranchConfigs
+  ) {
+    node.nodeConfig.conditionBranchConfigs.forEach((branch) =>
+      branch.nextNodeIds?.forEach((id) => nextIds.add(id)),
+    );
+  }
+
+  if (
+    node.type === NodeTypeEnum.IntentRecognition &&
+    node.nodeConfig?.intentConfigs
+  ) {
+    node.nodeConfig.intentConfigs.forEach((intent) =>
+      intent.nextNodeIds?.forEach((id) => nextIds.add(id)),
+    );
+  }
+
+  if (node.type === NodeTypeEnum.QA && node.nodeConfig?.options) {
+    node.nodeConfig.options.forEach((option) =>
+      option.nextNodeIds?.forEach((id) => nextIds.add(id)),
+    );
+  }
+
+  const exceptionHandleConfig = node.nodeConfig?.exceptionHandleConfig;
+  if (
+    exceptionHandleConfig?.exceptionHandleType === EXECUTE_EXCEPTION_FLOW &&
+    exceptionHandleConfig.exceptionHandleNodeIds
+  ) {
+    exceptionHandleConfig.exceptionHandleNodeIds.forEach((id) =>
+      nextIds.add(id),
+    );
+  }
+
+  return Array.from(nextIds);
+}
+
+/**
+ * 判断 from -> to 是否为 Loop → LoopStart 迭代控制边
+ */
+function isLoopStartEdge(from: ChildNode, to: ChildNode): boolean {
+  return (
+    from.type === NodeTypeEnum.Loop &&
+    to.type === NodeTypeEnum.LoopStart &&
+    Number(to.loopNodeId) === Number(from.id)
+  );
+}
+
+/**
+ * 判断 from -> to 是否为 LoopEnd → Loop 迭代控制边
+ */
+function isLoopEndEdge(from: ChildNode, to: ChildNode): boolean {
+  return (
+    to.type === NodeTypeEnum.Loop &&
+    from.type === NodeTypeEnum.LoopEnd &&
+    Number(from.loopNodeId) === Number(to.id)
+  );
+}
+
+/**
+ * 将按行分组的邻接表压缩为 CSR 结构
+ */
+function toCsr(rows: number[][]): { offsets: Int32Array; targets: Int32Array } {
+  const offsets = new Int32Array(rows.length + 1);
+  let total = 0;
+  for (let i = 0; i < rows.length; i++) {
+    offsets[i] = total;
+    total += rows[i].length;
+  }
+  offsets[rows.length] = total;
+
+  const targets = new Int32Array(total);
+  for (let i = 0; i < rows.length; i++) {
+    targets.set(rows[i], offsets[i]);
+  }
+  return { offsets, targets };
+}
+
+/**
+ * 计算可达闭包（位集）
+ *
+ * 先用迭代版 Tarjan 求强连通分量，Tarjan 保证一个分量在其所有可达分量之后才出栈，
+ * 因此按出栈顺序合并即可保证依赖的行已经计算完成，整体代价约为 O(E × n / 32)。
+ * 处于环中（分量大小 > 1 或存在自环）的节点，其闭包包含分量内所有节点（含自身）。
+ */
+function computeClosure(
+  size: number,
+  words: number,
+  offsets: Int32Array,
+  targets: Int32Array,
+): Uint32Array {
+  const sccOf = new Int32Array(size).fill(-1);
+  const indexOf = new Int32Array(size).fill(-1);
+  const lowLink = new Int32Array(size);
+  const onStack = new Uint8Array(size);
+  const sccStack = new Int32Array(size);
+  const callStack = new Int32Array(size);
+  const edgeCursor = new Int32Array(size);
+  const sccRows: Uint32Array[] = [];
+  const closure = new Uint32Array(size * words);
+
+  let sccStackTop = 0;
+  let nextIndex = 0;
+
+  for (let root = 0; root < size; root++) {
+    if (indexOf[root] !== -1) continue;
+
+    let callTop = 0;
+    callStack[callTop++] = root;
+    indexOf[root] = lowLink[root] = nextIndex++;
+    edgeCursor[root] = offsets[root];
+    sccStack[sccStackTop++] = root;
+    onStack[root] = 1;
+
+    while (callTop > 0) {
+      const v = callStack[callTop - 1];
+
+      if (edgeCursor[v] < offsets[v + 1]) {
+        const w = targets[edgeCursor[v]++];
+        if (indexOf[w] === -1) {
+          indexOf[w] = lowLink[w] = nextIndex++;
+          edgeCursor[w] = offsets[w];
+          sccStack[sccStackTop++] = w;
+          onStack[w] = 1;
+          callStack[callTop++] = w;
+        } else if (onStack[w]) {
+          lowLink[v] = Math.min(lowLink[v], indexOf[w]);
+        }
+        continue;
+      }
+
+      callTop--;
+      if (callTop > 0) {
+        const parent = callStack[callTop - 1];
+        lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+      }
+      if (lowLink[v] !== indexOf[v]) continue;
+
+      // v 为分量根节点：弹出分量成员
+      const sccId = sccRows.length;
+      const members: number[] = [];
+      let member: number;
+      do {
+        member = sccStack[--sccStackTop];
+        onStack[member] = 0;
+        sccOf[member] = sccId;
+        members.push(member);
+      } while (member !== v);
+
+      const row = new Uint32Array(words);
+      let cyclic = members.length > 1;
+      members.forEach((m) => {
+        for (let e = offsets[m]; e < offsets[m + 1]; e++) {
+          const t = targets[e];
+          const tScc = sccOf[t];
+          if (tScc === sccId) {
+            cyclic = true;
+            continue;
+          }
+          row[t >>> 5] |= 1 << (t & 31);
+          const tRow = sccRows[tScc];
+          for (let k = 0; k < words; k++) {
+            row[k] |= tRow[k];
+          }
+        }
+      });
+      if (cyclic) {
+        members.forEach((m) => {
+          row[m >>> 5] |= 1 << (m & 31);
+        });
+      }
+      sccRows.push(row);
+      members.forEach((m) => closure.set(row, m * words));
+    }
+  }
+
+  return closure;
+}
+
+/**
+ * 计算从 Start 节点出发的 DFS 先序序号（迭代实现，与递归先序一致）
+ * 注意：遍历不跳过迭代控制边，且不使用 edgeList，与单节点排序规则保持一致
+ */
+function computeExecutionOrder(
+  size: number,
+  startIndex: number,
+  offsets: Int32Array,
+  targets: Int32Array,
+): Int32Array {
+  const order = new Int32Array(size).fill(-1);
+  if (startIndex < 0) return order;
+
+  let next = 0;
+  const stack: number[] = [startIndex];
+  while (stack.length > 0) {
+    const v = stack.pop()!;
+    if (order[v] !== -1) continue;
+    order[v] = next++;
+    for (let e = offsets[v + 1] - 1; e >= offsets[v]; e--) {
+      if (order[targets[e]] === -1) {
+        stack.push(targets[e]);
+      }
+    }
+  }
+  return order;
+}
+
+// ==================== 主要函数 ====================
+
+/**
+ * 编译工作流引用图
+ * @param nodes 工作流节点列表
+ * @param edgeList 连线列表（补充 nextNodeIds 中缺失的连线）
+ */
+export function compileReferenceGraph(
+  nodes: ChildNode[],
+  edgeList: EdgeV3[] = [],
+): CompiledReferenceGraph {
+  const indexOf = new Map<number, number>();
+  const ids: number[] = [];
+  const denseNodes: ChildNode[] = [];
+
+  nodes.forEach((node) => {
+    const nodeId = Number(node.id);
+    const index = indexOf.get(nodeId);
+    if (index === undefined) {
+      indexOf.set(nodeId, ids.length);
+      ids.push(nodeId);
+      denseNodes.push(node);
+    } else {
+      // 与 buildNodeMap 一致：重复 ID 以后出现的节点为准
+      denseNodes[index] = node;
+    }
+  });
+
+  const size = ids.length;
+  const words = Math.max(1, Math.ceil(size / 32));
+
+  // 原始正向邻接（用于排序）、过滤后正向邻接（用于未来节点）、原始/过滤反向邻接
+  const nextRows: number[][] = denseNodes.map(() => []);
+  const futureRows: number[][] = denseNodes.map(() => []);
+  const predRows: number[][] = denseNodes.map(() => []);
+  const ancestorRows: number[][] = denseNodes.map(() => []);
+  const dependentRows: number[][] = denseNodes.map(() => []);
+  const predSeen: Set<number>[] = denseNodes.map(() => new Set<number>());
+
+  const addPredecessor = (from: number, to: number) => {
+    if (predSeen[to].has(from)) return;
+    predSeen[to].add(from);
+    predRows[to].push(from);
+    dependentRows[from].push(to);
+    if (!isLoopEndEdge(denseNodes[from], denseNodes[to])) {
+      ancestorRows[to].push(from);
+    }
+  };
+
+  // 循环节点与内部节点互相依赖：循环节点的 innerPreviousNodes 依赖内部节点，
+  // 内部节点的可引用变量依赖循环节点的配置和外部前驱
+  denseNodes.forEach((node, index) => {
+    const loopIndex = node.loopNodeId
+      ? indexOf.get(Number(node.loopNodeId))
+      : undefined;
+    if (loopIndex !== undefined && loopIndex !== index) {
+      dependentRows[index].push(loopIndex);
+      dependentRows[loopIndex].push(index);
+    }
+  });
+
+  nodes.forEach((node) => {
+    const from = indexOf.get(Number(node.id))!;
+    collectNextNodeIds(node).forEach((nextId) => {
+      const to = indexOf.get(Number(nextId));
+      if (to === undefined) return;
+      nextRows[from].push(to);
+      if (!isLoopStartEdge(denseNodes[from], denseNodes[to])) {
+        futureRows[from].push(to);
+      }
+      addPredecessor(from, to);
+    });
+  });
+
+  edgeList.forEach((edge) => {
+    const from = indexOf.get(parseInt(edge.source, 10));
+    const to = indexOf.get(parseInt(edge.target, 10));
+    if (from !== undefined && to !== undefined) {
+      addPredecessor(from, to);
+    }
+  });
+
+  const pred = toCsr(predRows);
+  const dependent = toCsr(dependentRows);
+  const ancestorCsr = toCsr(ancestorRows);
+  const futureCsr = toCsr(futureRows);
+  const nextCsr = toCsr(nextRows);
+
+  const startNode = denseNodes.find((n) => n.type === NodeTypeEnum.Start);
+  const startIndex = startNode ? indexOf.get(Number(startNode.id))! : -1;
+
+  return Object.freeze({
+    size,
+    ids: Object.freeze(ids),
+    nodes: Object.freeze(denseNodes),
+    indexOf,
+    words,
+    predOffsets: pred.offsets,
+    predTargets: pred.targets,
+    dependentOffsets: dependent.offsets,
+    dependentTargets: dependent.targets,
+    ancestors: computeClosure(
+      size,
+      words,
+      ancestorCsr.offsets,
+      ancestorCsr.targets,
+    ),
+    descendants: computeClosure(
+      size,
+      words,
+      futureCsr.offsets,
+      futureCsr.targets,
+    ),
+    executionOrder: computeExecutionOrder(
+      size,
+      startIndex,
+      nextCsr.offsets,
+      nextCsr.targets,
+    ),
+  });
+}
+
+/**
+ * 获取节点的有效上级节点 ID（与 findAllPredecessors 语义一致）
+ *
+ * 结果 = (直接前驱 ∪ 直接前驱的祖先闭包) − 自身 − excludeFutureOf 的未来节点
+ * @param graph 编译图
+ * @param nodeId 目标节点 ID
+ * @param excludeFutureOf 以该节点的未来节点作为排除集合，默认为目标节点本身
+ */
+export function getCompiledPredecessorIds(
+  graph: CompiledReferenceGraph,
+  nodeId: number,
+  excludeFutureOf: number = nodeId,
+): number[] {
+  const index = graph.indexOf.get(Number(nodeId));
+  if (index === undefined) return [];
+
+  const { words, ancestors, descendants, predOffsets, predTargets } = graph;
+  const row = new Uint32Array(words);
+  for (let e = predOffsets[index]; e < predOffsets[index + 1]; e++) {
+    const p = predTargets[e];
+    row[p >>> 5] |= 1 << (p & 31);
+    const base = p * words;
+    for (let k = 0; k < words; k++) {
+      row[k] |= ancestors[base + k];
+    }
+  }
+  row[index >>> 5] &= ~(1 << (index & 31));
+
+  const futureIndex = graph.indexOf.get(Number(excludeFutureOf));
+  if (futureIndex !== undefined) {
+    const base = futureIndex * words;
+    for (let k = 0; k < words; k++) {
+      row[k] &= ~descendants[base + k];
+    }
+  }
+
+  const result: number[] = [];
+  for (let k = 0; k < words; k++) {
+    let bits = row[k];
+    while (bits !== 0) {
+      const low = bits & -bits;
+      result.push(graph.ids[(k << 5) + (31 - Math.clz32(low))]);
+      bits ^= low;
+    }
+  }
+  return result;
+}
+
+/**
+ * 判断 candidateId 是否为 nodeId 的有效上级节点（与 getCompiledPredecessorIds 语义一致）
+ * 只检查单个节点，无需展开整行位集，适合逐个校验引用
+ * @param graph 编译图
+ * @param nodeId 目标节点 ID
+ * @param candidateId 待检查的节点 ID
+ * @param excludeFutureOf 以该节点的未来节点作为排除集合，默认为目标节点本身
+ */
+export function isCompiledPredecessor(
+  graph: CompiledReferenceGraph,
+  nodeId: number,
+  candidateId: number,
+  excludeFutureOf: number = nodeId,
+): boolean {
+  const index = graph.indexOf.get(Number(nodeId));
+  const candidate = graph.indexOf.get(Number(candidateId));
+  if (index === undefined || candidate === undefined || candidate === index) {
+    return false;
+  }
+
+  const { words, ancestors, descendants, predOffsets, predTargets } = graph;
+  const word = candidate >>> 5;
+  const bit = 1 << (candidate & 31);
+
+  const futureIndex = graph.indexOf.get(Number(excludeFutureOf));
+  if (
+    futureIndex !== undefined &&
+    (descendants[futureIndex * words + word] & bit) !== 0
+  ) {
+    return false;
+  }
+
+  for (let e = predOffsets[index]; e < predOffsets[index + 1]; e++) {
+    const p = predTargets[e];
+    if (p === candidate || (ancestors[p * words + word] & bit) !== 0) {
+      return true;
+    }
+  }
+  return false;
+}
+
+/**
+ * 获取节点的执行顺序序号，不可达返回 undefined
+ */
+export function getCompiledExecutionOrder(
+  graph: CompiledReferenceGraph,
+  nodeId: number,
+): number | undefined {
+  const index = graph.indexOf.get(Number(nodeId));
+  if (index === undefined) return undefined;
+  const order = graph.executionOrder[index];
+  return order === -1 ? undefined : order;
+}
+
+/**
+ * 获取变更节点影响的所有节点 ID（含自身），沿依赖关系遍历
+ * 不在图中的节点 ID（如新增节点）原样保留在结果中
+ */
+export function getCompiledDependentIds(
+  graph: CompiledReferenceGraph,
+  nodeIds: number[],
+): Set<number> {
+  const affected = new Set<number>();
+  const visited = new Uint8Array(graph.size);
+  const stack: number[] = [];
+
+  nodeIds.forEach((id) => {
+    const nodeId = Number(id);
+    affected.add(nodeId);
+    const index = graph.indexOf.get(nodeId);
+    if (index !== undefined && !visited[index]) {
+      visited[index] = 1;
+      stack.push(index);
+    }
+  });
+
+  const { dependentOffsets, dependentTargets } = graph;
+  while (stack.length > 0) {
+    const v = stack.pop()!;
+    for (let e = dependentOffsets[v]; e < dependentOffsets[v + 1]; e++) {
+      const t = dependentTargets[e];
+      if (!visited[t]) {
+        visited[t] = 1;
+        affected.add(graph.ids[t]);
+        stack.push(t);
+      }
+    }
+  }
+  return affected;
+}
@@ -0,0 +1,176 @@
+/**
+ * V3 变量引用反向索引
+ *
+ * 维护 引用 key -> 引用位置 的反向索引，删除节点前据此找出仍引用其变量的节点：
+ * 1. 引用 key 与 bindValue 格式一致：nodeId.argPath / loopId-input.xxx / loopId-var.xxx
+ * 2. 引用位置为引用方节点 ID 及参数在节点配置中的位置
+ * 3. 同时收录 bindValueType=Reference 的参数和提示词等文本字段中的 {{key}} 模板引用
+ * 4. 节点新增、修改、删除时只更新该节点自身的条目，无需扫描整个工作流
+ *
+ * 索引只记录引用关系本身。连线变更不改变 bindValue，不需要更新索引；
+ * 引用是否仍然有效由 variableReferenceValidationV3 基于快照判断。
+ */
+
+import type { ChildNode } from '../types';
+import {
+  collectNodeReferenceArgs,
+  type ReferenceArg,
+} from './variableReferenceValidationV3';
+
+/**
+ * 引用位置
+ */
+export interface ReferenceLocationV3 extends ReferenceArg {
+  // 引用方节点 ID
+  nodeId: number;
+}
+
+// 可能包含 {{key}} 模板引用的文本字段
+const TEMPLATE_FIELDS = [
+  'systemPrompt',
+  'userPrompt',
+  'question',
+  'url',
+  'text',
+  'content',
+] as const;
+
+// {{123.output.field}} / {{4-input.xxx}} / {{4-var.xxx}}
+const TEMPLATE_REFERENCE_PATTERN = /\{\{\s*(\d+(?:-input|-var)?\.[^{}\s]+)\s*\}\}/g;
+
+/**
+ * 收集节点文本字段中的 {{key}} 模板引用，field 为字段名，同一字段内相同的 key 只记录一次
+ * @param node 工作流节点
+ */
+export function collectNodeTemplateReferences(node: ChildNode): ReferenceArg[] {
+  const result: ReferenceArg[] = [];
+  const nodeConfig = node.nodeConfig as Record<string, unknown> | undefined;
+  if (!nodeConfig) return result;
+
+  TEMPLATE_FIELDS.forEach((field) => {
+    const value = nodeConfig[field];
+    if (typeof value !== 'string' || !value.includes('{{')) return;
+    const keys = new Set<string>();
+    for (const match of value.matchAll(TEMPLATE_REFERENCE_PATTERN)) {
+      keys.add(match[1]);
+    }
+    keys.forEach((bindValue) => {
+      result.push({ field, name: field, bindValue });
+    });
+  });
+  return result;
+}
+
+/**
+ * 获取引用 key 所属的节点 ID
+ * key 总是以节点 ID 开头（123.xxx / 4-input.xxx / 4-var.xxx），parseInt 会在第一个非数字字符处停止
+ */
+function getKeyOwnerId(key: string): number {
+  return parseInt(key, 10);
+}
+
+export class VariableReferenceIndexV3 {
+  // 引用 key -> 引用位置
+  private locationsByKey = new Map<string, ReferenceLocationV3[]>();
+  // 被引用节点 ID -> 指向该节点的引用 key
+  private keysByOwner = new Map<number, Set<string>>();
+  // 引用方节点 ID -> 该节点的引用位置（增量更新时移除旧条目）
+  private locationsByNode = new Map<number, ReferenceLocationV3[]>();
+
+  /**
+   * 根据节点列表重建整个索引
+   * @param nodes 工作流节点列表
+   */
+  rebuild(nodes: ChildNode[]): void {
+    this.clear();
+    nodes.forEach((node) => this.addLocations(node));
+  }
+
+  /**
+   * 节点新增或配置变更后更新该节点的引用条目
+   * @param node 最新的节点数据
+   */
+  updateNode(node: ChildNode): void {
+    this.removeNode(Number(node.id));
+    this.addLocations(node);
+  }
+
+  /**
+   * 移除节点作为引用方的条目
+   * 指向该节点的引用仍然保留，用于删除后定位失效的引用
+   * @param nodeId 节点 ID
+   */
+  removeNode(nodeId: number): void {
+    const locations = this.locationsByNode.get(Number(nodeId));
+    if (!locations) return;
+    this.locationsByNode.delete(Number(nodeId));
+
+    locations.forEach(({ bindValue }) => {
+      const remaining = this.locationsByKey
+        .get(bindValue)
+        ?.filter((location) => location.nodeId !== Number(nodeId));
+      if (remaining?.length) {
+        this.locationsByKey.set(bindValue, remaining);
+        return;
+      }
+      this.locationsByKey.delete(bindValue);
+      const ownerId = getKeyOwnerId(bindValue);
+      const ownerKeys = this.keysByOwner.get(ownerId);
+      ownerKeys?.delete(bindValue);
+      if (ownerKeys?.size === 0) {
+        this.keysByOwner.delete(ownerId);
+      }
+    });
+  }
+
+  /**
+   * 清空索引
+   */
+  clear(): void {
+    this.locationsByKey.clear();
+    this.keysByOwner.clear();
+    this.locationsByNode.clear();
+  }
+
+  /**
+   * 查询引用了指定节点任意参数的位置（含循环节点的 -input / -var 变量）
+   * @param nodeId 被引用的节点 ID
+   */
+  getReferencesToNode(nodeId: number): ReferenceLocationV3[] {
+    const result: ReferenceLocationV3[] = [];
+    this.keysByOwner.get(Number(nodeId))?.forEach((refKey) => {
+      result.push(...this.locationsByKey.get(refKey)!);
+    });
+    return result;
+  }
+
+  private addLocations(node: ChildNode): void {
+    const nodeId = Number(node.id);
+    const locations = [
+      ...collectNodeReferenceArgs(node),
+      ...collectNodeTemplateReferences(node),
+    ].map((refArg) => ({ ...refArg, nodeId }));
+    if (locations.length === 0) return;
+
+    this.locationsByNode.set(nodeId, locations);
+    locations.forEach((location) => {
+      const { bindValue } = location;
+      const keyLocations = this.locationsByKey.get(bindValue);
+      if (keyLocations) {
+        keyLocations.push(location);
+        return;
+      }
+      this.locationsByKey.set(bindValue, [location]);
+      const ownerId = getKeyOwnerId(bindValue);
+      let ownerKeys = this.keysByOwner.get(ownerId);
+      if (!ownerKeys) {
+        ownerKeys = new Set();
+        this.keysByOwner.set(ownerId, ownerKeys);
+      }
+      ownerKeys.add(bindValue);
+    });
+  }
+}
+
+export const variableReferenceIndex = new VariableReferenceIndexV3();
+export default VariableReferenceIndexV3;
@@ -0,0 +1,286 @@
+/**
+ * V3 变量引用计算指标
+ *
+ * 记录每次引用查询各阶段的耗时和图规模，用于定位耗时集中的阶段和异常工作流：
+ * 1. 阶段耗时直方图：缓存读取、节点收集、图编译、参数索引、循环作用域、
+ *    上级节点、循环变量、排序
+ * 2. 图规模直方图：节点数、连线数、上级节点数、argMap 条目数
+ * 3. 慢查询日志：总耗时超过阈值时输出 workflowId、nodeId 和各阶段耗时
+ *
+ * 使用方式：
+ * const trace = variableReferenceMetrics.startQuery(workflowId, nodeId);
+ * const result = measurePhase(trace, 'collect', () => collect());
+ * trace?.end();
+ */
+
+import { workflowLogger } from '@/utils/logger';
+
+export type ReferencePhase =
+  | 'cache'
+  | 'collect'
+  | 'compileGraph'
+  | 'argIndex'
+  | 'loopScopes'
+  | 'previousNodes'
+  | 'loopVariables'
+  | 'sort';
+
+export type ReferenceSizeMetric =
+  | 'nodes'
+  | 'edges'
+  | 'ancestors'
+  | 'argMapEntries';
+
+export interface VariableReferenceMetricsOptions {
+  // 是否记录指标，关闭后 startQuery 返回 undefined
+  enabled?: boolean;
+  // 慢查询阈值（毫秒），总耗时不低于该值时输出日志
+  slowQueryThresholdMs?: number;
+  // 保留的最近慢查询条数
+  slowQueryLogSize?: number;
+}
+
+export interface HistogramSnapshot {
+  count: number;
+  sum: number;
+  max: number;
+  // 每个区间的计数，le 为区间上界（含），最后一个区间上界为 Infinity
+  buckets: { le: number; count: number }[];
+}
+
+export interface SlowQueryRecord {
+  workflowId: number;
+  nodeId: number | null;
+  totalMs: number;
+  phases: Partial<Record<ReferencePhase, number>>;
+  sizes: Partial<Record<ReferenceSizeMetric, number>>;
+  timestamp: number;
+}
+
+export interface VariableReferenceMetricsStats {
+  total: HistogramSnapshot;
+  phases: Partial<Record<ReferencePhase, HistogramSnapshot>>;
+  sizes: Partial<Record<ReferenceSizeMetric, HistogramSnapshot>>;
+  slowQueries: SlowQueryRecord[];
+}
+
+// 耗时区间上界（毫秒）
+const DURATION_BUCKETS = [1, 5, 10, 25, 50, 100, 250, 500, 1000];
+// 规模区间上界
+const SIZE_BUCKETS = [10, 50, 100, 500, 1000, 5000, 10000, 50000];
+
+const now = (): number =>
+  typeof performance !== 'undefined' ? performance.now() : Date.now();
+
+class Histogram {
+  private counts: number[];
+  private count = 0;
+  private sum = 0;
+  private max = 0;
+
+  constructor(private readonly bounds: number[]) {
+    this.counts = new Array(bounds.length + 1).fill(0);
+  }
+
+  record(value: number): void {
+    let index = this.bounds.findIndex((bound) => value <= bound);
+    if (index < 0) index = this.bounds.length;
+    this.counts[index]++;
+    this.count++;
+    this.sum += value;
+    this.max = Math.max(this.max, value);
+  }
+
+  snapshot(): HistogramSnapshot {
+    return {
+      count: this.count,
+      sum: this.sum,
+      max: this.max,
+      buckets: this.counts.map((count, index) => ({
+        le: index < this.bounds.length ? this.bounds[index] : Infinity,
+        count,
+      })),
+    };
+  }
+}
+
+/**
+ * 单次引用查询的耗时和规模记录
+ */
+export class ReferenceQueryTrace {
+  readonly phases: Partial<Record<ReferencePhase, number>> = {};
+  readonly sizes: Partial<Record<ReferenceSizeMetric, number>> = {};
+  private readonly startedAt = now();
+  private lastLap = this.startedAt;
+  private ended = false;
+
+  constructor(
+    readonly workflowId: number,
+    readonly nodeId: number | null,
+    private readonly metrics: VariableReferenceMetricsV3,
+  ) {}
+
+  /**
+   * 记录函数执行耗时到指定阶段（同一阶段多次调用时累加）
+   */
+  measure<T>(phase: ReferencePhase, fn: () => T): T {
+    const start = now();
+    try {
+      return fn();
+    } finally {
+      this.addPhase(phase, now() - start);
+      this.lastLap = now();
+    }
+  }
+
+  /**
+   * 分段计时：将上一次分段以来的耗时记录到指定阶段，不传阶段时只重置起点
+   */
+  lap(phase?: ReferencePhase): void {
+    const current = now();
+    if (phase) this.addPhase(phase, current - this.lastLap);
+    this.lastLap = current;
+  }
+
+  /**
+   * 记录图规模
+   */
+  recordSize(metric: ReferenceSizeMetric, value: number): void {
+    this.sizes[metric] = value;
+  }
+
+  /**
+   * 结束查询并提交指标，重复调用只提交一次
+   */
+  end(): void {
+    if (this.ended) return;
+    this.ended = true;
+    this.metrics.finish(this, now() - this.startedAt);
+  }
+
+  private addPhase(phase: ReferencePhase, elapsed: number): void {
+    this.phases[phase] = (this.phases[phase] ?? 0) + elapsed;
+  }
+}
+
+/**
+ * 在 trace 存在时记录函数耗时，否则直接执行
+ */
+export function measurePhase<T>(
+  trace: ReferenceQueryTrace | undefined,
+  phase: ReferencePhase,
+  fn: () => T,
+): T {
+  return trace ? trace.measure(phase, fn) : fn();
+}
+
+export class VariableReferenceMetricsV3 {
+  private readonly enabled: boolean;
+  private readonly slowQueryThresholdMs: number;
+  private readonly slowQueryLogSize: number;
+  private total = new Histogram(DURATION_BUCKETS);
+  private phases = new Map<ReferencePhase, Histogram>();
+  private sizes = new Map<ReferenceSizeMetric, Histogram>();
+  private slowQueries: SlowQueryRecord[] = [];
+
+  constructor(options: VariableReferenceMetricsOptions = {}) {
+    this.enabled = options.enabled ?? true;
+    this.slowQueryThresholdMs = options.slowQueryThresholdMs ?? 100;
+    this.slowQueryLogSize = options.slowQueryLogSize ?? 20;
+  }
+
+  /**
+   * 开始一次引用查询，指标关闭时返回 undefined
+   * @param workflowId 工作流 ID
+   * @param nodeId 查询的节点 ID，批量计算时为 null
+   */
+  startQuery(
+    workflowId: number,
+    nodeId: number | null = null,
+  ): ReferenceQueryTrace | undefined {
+    return this.enabled
+      ? new ReferenceQueryTrace(workflowId, nodeId, this)
+      : undefined;
+  }
+
+  /**
+   * 提交一次查询的指标，由 ReferenceQueryTrace.end 调用
+   */
+  finish(trace: ReferenceQueryTrace, totalMs: number): void {
+    this.total.record(totalMs);
+    (Object.keys(trace.phases) as ReferencePhase[]).forEach((phase) => {
+      this.getHistogram(this.phases, phase, DURATION_BUCKETS).record(
+        trace.phases[phase]!,
+      );
+    });
+    (Object.keys(trace.sizes) as ReferenceSizeMetric[]).forEach((metric) => {
+      this.getHistogram(this.sizes, metric, SIZE_BUCKETS).record(
+        trace.sizes[metric]!,
+      );
+    });
+
+    if (totalMs < this.slowQueryThresholdMs) return;
+
+    const record: SlowQueryRecord = {
+      workflowId: trace.workflowId,
+      nodeId: trace.nodeId,
+      totalMs,
+      phases: { ...trace.phases },
+      sizes: { ...trace.sizes },
+      timestamp: Date.now(),
+    };
+    this.slowQueries.push(record);
+    if (this.slowQueries.length > this.slowQueryLogSize) {
+      this.slowQueries.shift();
+    }
+    workflowLogger.warn(
+      `[VariableReference] Slow query: ${totalMs.toFixed(1)}ms`,
+      record,
+    );
+  }
+
+  /**
+   * 获取指标快照
+   */
+  getStats(): VariableReferenceMetricsStats {
+    const toRecord = <K extends string>(map: Map<K, Histogram>) => {
+      const result: Partial<Record<K, HistogramSnapshot>> = {};
+      map.forEach((histogram, key) => {
+        result[key] = histogram.snapshot();
+      });
+      return result;
+    };
+    return {
+      total: this.total.snapshot(),
+      phases: toRecord(this.phases),
+      sizes: toRecord(this.sizes),
+      slowQueries: [...this.slowQueries],
+    };
+  }
+
+  /**
+   * 清空所有指标
+   */
+  reset(): void {
+    this.total = new Histogram(DURATION_BUCKETS);
+    this.phases.clear();
+    this.sizes.clear();
+    this.slowQueries = [];
+  }
+
+  private getHistogram<K>(
+    map: Map<K, Histogram>,
+    key: K,
+    bounds: number[],
+  ): Histogram {
+    let histogram = map.get(key);
+    if (!histogram) {
+      histogram = new Histogram(bounds);
+      map.set(key, histogram);
+    }
+    return histogram;
+  }
+}
+
+export const variableReferenceMetrics = new VariableReferenceMetricsV3();
+export default VariableReferenceMetricsV3;
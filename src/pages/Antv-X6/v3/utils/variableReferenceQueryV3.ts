@@ -0,0 +1,102 @@
+/**
+ * V3 编辑器变量引用查询
+ *
+ * 节点引用面板和发布前校验读取变量引用的入口：
+ * 1. 节点结果先读缓存，未命中时基于共享快照计算并写入缓存
+ * 2. 快照每个图版本只编译一次，数据来自调用方传入的收集函数（画布优先）
+ * 3. 不经过 workflowProxy 的画布变更（表单实时编辑）通过
+ *    invalidateNodeReferences 失效受影响的结果
+ */
+
+import type {
+  ChildNode,
+  NodePreviousAndArgMap,
+  WorkflowDataV3,
+} from '../types';
+import { variableReferenceCache } from './variableReferenceCacheV3';
+import {
+  measurePhase,
+  type ReferenceQueryTrace,
+} from './variableReferenceMetricsV3';
+import {
+  calculateNodePreviousArgsFromSnapshot,
+  compileReferenceSnapshot,
+  type ReferenceSnapshot,
+} from './variableReferenceV3';
+
+/**
+ * 收集引用计算用的工作流数据，画布尚无节点时返回 null
+ */
+export type CollectReferenceWorkflowData = () => WorkflowDataV3 | null;
+
+/**
+ * 获取工作流当前图版本的快照，不存在时从收集的数据编译
+ * @param workflowId 工作流 ID
+ * @param collect 收集工作流数据
+ * @param trace 查询追踪，记录收集和编译阶段耗时
+ */
+export function getReferenceSnapshot(
+  workflowId: number,
+  collect: CollectReferenceWorkflowData,
+  trace?: ReferenceQueryTrace,
+): ReferenceSnapshot | undefined {
+  return variableReferenceCache.getOrCompileSnapshot(
+    workflowId,
+    (nodeArgIndexCache) => {
+      const workflowData = measurePhase(trace, 'collect', collect);
+      return workflowData
+        ? compileReferenceSnapshot(workflowData, trace, nodeArgIndexCache)
+        : undefined;
+    },
+  );
+}
+
+/**
+ * 查询节点的上级节点和可引用变量
+ * @param workflowId 工作流 ID
+ * @param nodeId 节点 ID
+ * @param collect 收集工作流数据
+ * @param trace 查询追踪
+ * @returns 没有可用的工作流数据时返回 undefined
+ */
+export function queryNodePreviousArgs(
+  workflowId: number,
+  nodeId: number,
+  collect: CollectReferenceWorkflowData,
+  trace?: ReferenceQueryTrace,
+): NodePreviousAndArgMap | undefined {
+  const cached = measurePhase(trace, 'cache', () =>
+    variableReferenceCache.get(workflowId, nodeId),
+  );
+  if (cached) return cached;
+
+  const snapshot = getReferenceSnapshot(workflowId, collect, trace);
+  if (!snapshot) return undefined;
+
+  const result = calculateNodePreviousArgsFromSnapshot(nodeId, snapshot, trace);
+  variableReferenceCache.set(workflowId, nodeId, result);
+  return result;
+}
+
+/**
+ * 节点数据在画布上被直接修改后失效受影响的引用结果：
+ * 节点自身及其下游，循环内节点同时失效所属循环节点
+ * @param workflowId 工作流 ID
+ * @param node 被修改的节点
+ */
+export function invalidateNodeReferences(
+  workflowId: number,
+  node: Pick<ChildNode, 'id' | 'loopNodeId'>,
+): void {
+  const nodeIds = [Number(node.id)];
+  if (node.loopNodeId) {
+    nodeIds.push(Number(node.loopNodeId));
+  }
+  variableReferenceCache.invalidateNodes(workflowId, nodeIds);
+}
+
+export default {
+  getReferenceSnapshot,
+  queryNodePreviousArgs,
+  invalidateNodeReferences,
+};
@@ -21,8 +21,19 @@ import type {
   PreviousList,
   WorkflowDataV3,
 } from '../types';
+import {
+  collectNextNodeIds,
+  compileReferenceGraph,
+  getCompiledExecutionOrder,
+  getCompiledPredecessorIds,
+  isCompiledPredecessor,
+  type CompiledReferenceGraph,
+} from './variableReferenceGraphV3';
+import {
+  measurePhase,
+  type ReferenceQueryTrace,
+} from './variableReferenceMetricsV3';
 
-const EXECUTE_EXCEPTION_FLOW = 'EXECUTE_EXCEPTION_FLOW';
 const INDEX_SYSTEM_NAME = 'INDEX';
 
 /**
@@ -42,56 +53,25 @@ const AGENT_DEFAULT_OUTPUT_ARGS: InputAndOutConfig[] = [
   },
 ];
 
-// ==================== 工具函数 ====================
+const ARRAY_TYPE_PREFIX = 'Array_';
 
 /**
- * 获取节点的所有下游节点 ID（用于排序）
+ * 数据类型查找表，由 DataTypeEnum 一次生成，避免按字符串拼接/截取推导类型：
+ * - ARRAY_TYPE_OF：元素类型 -> 数组类型，如 String -> Array_String
+ * - ELEMENT_TYPE_OF：数组类型 -> 元素类型，如 Array_String -> String
  */
-function collectNextNodeIds(node: ChildNode): number[] {
-  const nextIds = new Set<number>();
-
-  (node.nextNodeIds || []).forEach((id) => {
-    if (id !== node.loopNodeId) {
-      nextIds.add(id);
-    }
-  });
-
-  if (
-    node.type === NodeTypeEnum.Condition &&
-    node.nodeConfig?.conditionBranchConfigs
-  ) {
-    node.nodeConfig.conditionBranchConfigs.forEach((branch) =>
-      branch.nextNodeIds?.forEach((id) => nextIds.add(id)),
-    );
-  }
-
-  if (
-    node.type === NodeTypeEnum.IntentRecognition &&
-    node.nodeConfig?.intentConfigs
-  ) {
-    node.nodeConfig.intentConfigs.forEach((intent) =>
-      intent.nextNodeIds?.forEach((id) => nextIds.add(id)),
-    );
-  }
-
-  if (node.type === NodeTypeEnum.QA && node.nodeConfig?.options) {
-    node.nodeConfig.options.forEach((option) =>
-      option.nextNodeIds?.forEach((id) => nextIds.add(id)),
-    );
-  }
-
-  const exceptionHandleConfig = node.nodeConfig?.exceptionHandleConfig;
-  if (
-    exceptionHandleConfig?.exceptionHandleType === EXECUTE_EXCEPTION_FLOW &&
-    exceptionHandleConfig.exceptionHandleNodeIds
-  ) {
-    exceptionHandleConfig.exceptionHandleNodeIds.forEach((id) =>
-      nextIds.add(id),
-    );
+const ARRAY_TYPE_OF = new Map<DataTypeEnum | null, DataTypeEnum>();
+const ELEMENT_TYPE_OF = new Map<DataTypeEnum | null, DataTypeEnum>();
+Object.values(DataTypeEnum).forEach((dataType) => {
+  if (!dataType.startsWith(ARRAY_TYPE_PREFIX)) return;
+  const elementType = dataType.slice(ARRAY_TYPE_PREFIX.length) as DataTypeEnum;
+  if (Object.values(DataTypeEnum).includes(elementType)) {
+    ARRAY_TYPE_OF.set(elementType, dataType);
+    ELEMENT_TYPE_OF.set(dataType, elementType);
   }
+});
 
-  return Array.from(nextIds);
-}
+// ==================== 工具函数 ====================
 
 /**
  * 构建节点 ID 到节点的映射
@@ -112,18 +92,23 @@ function buildNodeMap(nodes: ChildNode[]): Map<number, ChildNode> {
  */
 function buildReverseGraph(
   nodes: ChildNode[],
-  edgeList?: EdgeV3[],
+  edgeList?: readonly EdgeV3[],
 ): Map<number, number[]> {
   const reverseGraph = new Map<number, number[]>();
+  // 前驱去重集合，避免 includes 在高入度节点上退化为平方复杂度
+  const seen = new Map<number, Set<number>>();
 
   // 初始化
   nodes.forEach((node) => {
     reverseGraph.set(Number(node.id), []);
+    seen.set(Number(node.id), new Set());
   });
 
   const addEdge = (from: number, to: number) => {
     const prevs = reverseGraph.get(to);
-    if (prevs && !prevs.includes(from)) {
+    const prevSet = seen.get(to);
+    if (prevs && prevSet && !prevSet.has(from)) {
+      prevSet.add(from);
       prevs.push(from);
     }
   };
@@ -196,53 +181,48 @@ function getForwardReachableNodes(
 
 /**
  * 使用 BFS 找到所有前驱节点（可达的上级节点）
+ * 入队时即标记访问，每个祖先只入队一次；队列使用游标出队，避免 shift 的线性开销
  * 注意：跳过 Loop ← LoopEnd 边，避免通过迭代控制边到达其他分支
  */
 function findAllPredecessors(
   nodeId: number,
   reverseGraph: Map<number, number[]>,
   visited: Set<number> = new Set(),
-  nodeMap?: Map<number, ChildNode>,
+  nodeMap?: ReadonlyMap<number, ChildNode>,
 ): number[] {
+  // 队列本身即为按 BFS 顺序排列的前驱列表
   const predecessors: number[] = [];
-  const queue: number[] = [...(reverseGraph.get(nodeId) || [])];
-
-  while (queue.length > 0) {
-    const current = queue.shift()!;
-
-    if (visited.has(current)) continue;
-    visited.add(current);
+  const enqueue = (id: number) => {
+    if (!visited.has(id)) {
+      visited.add(id);
+      predecessors.push(id);
+    }
+  };
 
-    predecessors.push(current);
+  (reverseGraph.get(nodeId) || []).forEach(enqueue);
 
+  for (let head = 0; head < predecessors.length; head++) {
+    const current = predecessors[head];
     const currentNode = nodeMap?.get(current);
     const prevNodes = reverseGraph.get(current) || [];
     prevNodes.forEach((prev) => {
-      if (!visited.has(prev)) {
-        const prevNode = nodeMap?.get(prev);
-        // 跳过 Loop ← LoopEnd 边（避免通过迭代控制边到达循环内其他分支）
-        if (
-          currentNode?.type === NodeTypeEnum.Loop &&
-          prevNode?.type === NodeTypeEnum.LoopEnd &&
-          Number(prevNode.loopNodeId) === Number(current)
-        ) {
-          return;
-        }
-        queue.push(prev);
+      if (visited.has(prev)) return;
+      const prevNode = nodeMap?.get(prev);
+      // 跳过 Loop ← LoopEnd 边（避免通过迭代控制边到达循环内其他分支）
+      if (
+        currentNode?.type === NodeTypeEnum.Loop &&
+        prevNode?.type === NodeTypeEnum.LoopEnd &&
+        Number(prevNode.loopNodeId) === Number(current)
+      ) {
+        return;
       }
+      enqueue(prev);
     });
   }
 
   return predecessors;
 }
 
-/**
- * 获取节点的输出参数
- */
-function cloneArg(arg: InputAndOutConfig): InputAndOutConfig {
-  return JSON.parse(JSON.stringify(arg)) as InputAndOutConfig;
-}
-
 /**
  * 将循环内部节点输出递归转换为 Array_* 类型。
  *
@@ -250,35 +230,22 @@ function cloneArg(arg: InputAndOutConfig): InputAndOutConfig {
  * - 循环节点对外暴露的是“每次迭代结果的集合”，不仅顶层参数是数组，
  *   子属性也应对应数组后的属性集合类型（如 String -> Array_String）。
  * - 历史实现只转换了第一层，导致子属性仍是 String/Object，进而在引用选择时被判定为非数组。
+ * - 逐层浅拷贝生成新对象，不修改原参数，也不需要 JSON 深拷贝。
  */
-function applyLoopArrayType(arg: InputAndOutConfig): void {
-  arg.originDataType = arg.dataType;
-
-  if (
-    !arg.dataType ||
-    (typeof arg.dataType === 'string' &&
-      !(arg.dataType as string).startsWith('Array_'))
-  ) {
-    const base =
-      typeof arg.dataType === 'string' && arg.dataType
-        ? arg.dataType
-        : 'Object';
-    arg.dataType = `Array_${base}` as DataTypeEnum;
-  } else {
-    arg.dataType = DataTypeEnum.Array_Object;
-  }
+function convertArgToLoopArrayType(arg: InputAndOutConfig): InputAndOutConfig {
+  // 已是数组（二维数组）或类型未知时统一为 Array_Object
+  const newArg: InputAndOutConfig = {
+    ...arg,
+    originDataType: arg.dataType,
+    dataType: ARRAY_TYPE_OF.get(arg.dataType) || DataTypeEnum.Array_Object,
+  };
 
   const children = arg.subArgs || arg.children;
   if (Array.isArray(children) && children.length > 0) {
-    children.forEach((item) => applyLoopArrayType(item));
-    arg.subArgs = children;
-    arg.children = children;
+    const convertedChildren = children.map(convertArgToLoopArrayType);
+    newArg.subArgs = convertedChildren;
+    newArg.children = convertedChildren;
   }
-}
-
-function convertArgToLoopArrayType(arg: InputAndOutConfig): InputAndOutConfig {
-  const newArg = cloneArg(arg);
-  applyLoopArrayType(newArg);
   return newArg;
 }
 
@@ -309,13 +276,13 @@ function ensureVariableSuccessOutput(node: ChildNode): InputAndOutConfig[] {
 
 function getNodeOutputArgs(
   node: ChildNode,
-  systemVariables: InputAndOutConfig[] = [],
+  systemVariables: readonly InputAndOutConfig[] = [],
 ): InputAndOutConfig[] {
   // Start 节点：将 inputArgs 视为可引用输出，并保留原输出
   if (node.type === NodeTypeEnum.Start) {
     const outputFromInput =
       node.nodeConfig?.inputArgs?.map((arg) => ({
-        ...cloneArg(arg),
+        ...arg,
         bindValueType: undefined,
         bindValue: '',
       })) || [];
@@ -364,7 +331,7 @@ function generateArgKey(
  */
 function prefixOutputArgsKeys(
   nodeIdOrPrefix: number | string,
-  args: InputAndOutConfig[],
+  args: readonly InputAndOutConfig[],
   parentPath: string[] = [],
 ): InputAndOutConfig[] {
   return args.map((arg) => {
@@ -389,14 +356,14 @@ function prefixOutputArgsKeys(
 
 /**
  * 递归展开参数的子属性，生成 argMap
+ * 子属性直接写入同一个 argMap，避免逐层创建临时对象再合并
  */
 function flattenArgsToMap(
   nodeIdOrPrefix: number | string,
-  args: InputAndOutConfig[],
+  args: readonly InputAndOutConfig[],
   parentPath: string[] = [],
+  argMap: ArgMap = {},
 ): ArgMap {
-  const argMap: ArgMap = {};
-
   args.forEach((arg) => {
     // 使用 arg.name 作为主要标识，如果为空则使用 arg.key (用于 variableArgs 等场景)
     const nameIdentifier = arg.name || '';
@@ -422,14 +389,390 @@ function flattenArgsToMap(
     // 如果有子参数，递归展开
     const subArgs = arg.subArgs || arg.children;
     if (subArgs && subArgs.length > 0) {
-      const subMap = flattenArgsToMap(nodeIdOrPrefix, subArgs, currentPath);
-      Object.assign(argMap, subMap);
+      flattenArgsToMap(nodeIdOrPrefix, subArgs, currentPath, argMap);
     }
   });
 
   return argMap;
 }
 
+/**
+ * 节点作为上级节点时的参数索引
+ *
+ * 每个图版本只构建一次，组装结果时按引用复用：
+ * outputArgs 直接作为 PreviousList.outputArgs，argMap 逐项合并到结果的 argMap。
+ * 两者在多个结果之间共享，调用方不应修改。
+ */
+export interface NodeArgIndex {
+  // 带节点 ID 前缀的输出参数
+  readonly outputArgs: InputAndOutConfig[];
+  // 展开后的参数映射（含 nodeId.obj.field 等子属性路径）
+  readonly argMap: ArgMap;
+}
+
+/**
+ * 循环内部节点及其参数索引（输出已转换为 Array_* 类型）
+ */
+export interface LoopInnerNode {
+  readonly node: ChildNode;
+  readonly argIndex: NodeArgIndex;
+}
+
+/**
+ * 跨图版本复用的节点参数索引
+ *
+ * 参数索引只依赖节点自身的配置，节点未变更时可以直接复用上一版本构建的结果。
+ * 条目中的参数索引为只读对象，由多个版本的快照共享。
+ */
+export interface NodeArgIndexEntry {
+  // 构建时的节点类型，类型不一致时重新构建
+  readonly type: NodeTypeEnum;
+  // 作为上级节点时的参数索引
+  argIndex?: NodeArgIndex;
+  // 作为循环内部节点时的参数索引（输出已转换为 Array_* 类型）
+  loopInnerArgIndex?: NodeArgIndex;
+}
+
+/**
+ * 节点 ID -> 参数索引条目，节点配置变更时由调用方移除对应条目
+ */
+export type NodeArgIndexCache = Map<number, NodeArgIndexEntry>;
+
+/**
+ * 工作流的只读编译快照
+ *
+ * 同一图版本只构建一次，之后所有节点的查询共享该快照：
+ * 编译图、节点映射、每个节点的参数索引和循环内部节点都已预先构建，
+ * 查询过程只读不写，可以安全地被多个调用方同时复用。
+ */
+export interface ReferenceSnapshot {
+  readonly graph: CompiledReferenceGraph;
+  readonly nodeMap: ReadonlyMap<number, ChildNode>;
+  readonly edgeList: readonly EdgeV3[];
+  readonly systemVariables: readonly InputAndOutConfig[];
+  // 节点 ID -> 参数索引
+  readonly argIndex: ReadonlyMap<number, NodeArgIndex>;
+  // 循环节点 ID -> 完整连通的内部节点
+  readonly loopInnerNodes: ReadonlyMap<number, readonly LoopInnerNode[]>;
+  // 循环节点 ID -> 循环体内可引用的循环变量（*_item 类型已解析）
+  readonly loopScopes: ReadonlyMap<number, NodeArgIndex>;
+}
+
+/**
+ * 变量引用计算所需的图查询上下文
+ * 单节点计算使用 BFS 实现，批量计算使用编译图实现，两者共享同一套组装逻辑
+ */
+interface PreviousArgsScope {
+  nodeMap: ReadonlyMap<number, ChildNode>;
+  /**
+   * 获取节点作为上级节点时的参数索引
+   */
+  getArgIndex: (node: ChildNode) => NodeArgIndex;
+  /**
+   * 获取循环节点内从 LoopStart 到 LoopEnd 完整连通的内部节点及其参数索引
+   */
+  getLoopInnerNodes: (loopNode: ChildNode) => readonly LoopInnerNode[];
+  /**
+   * 获取循环体内节点可引用的循环变量索引
+   * @param argMap 当前已收集的参数映射，用于解析循环输入引用的参数
+   */
+  getLoopScope: (loopNode: ChildNode, argMap: ArgMap) => NodeArgIndex;
+  /**
+   * 获取 nodeId 的有效上级节点 ID：排除 nodeId 自身和 currentNodeId 的逻辑未来节点
+   */
+  getPredecessorIds: (nodeId: number, currentNodeId: number) => number[];
+  /**
+   * 获取节点执行顺序序号（从 Start 开始的 DFS 先序），不可达返回 undefined
+   */
+  getExecutionOrder: (nodeId: number) => number | undefined;
+  /**
+   * 查询指标记录，存在时按阶段记录耗时和规模
+   */
+  trace?: ReferenceQueryTrace;
+}
+
+/**
+ * 构建节点作为上级节点时的参数索引
+ */
+function buildNodeArgIndex(
+  node: ChildNode,
+  systemVariables: readonly InputAndOutConfig[],
+): NodeArgIndex {
+  const outputArgs = getNodeOutputArgs(node, systemVariables);
+  const argMap: ArgMap = {};
+
+  // V3: 针对 Loop 节点，部分输出参数使用 -input 前缀以匹配后端格式
+  if (node.type === NodeTypeEnum.Loop) {
+    const prefixedOutputArgs = outputArgs.map((arg) => {
+      // 同步 Java: INDEX 和 _item 使用 -input，其他普通输出使用 nodeId
+      const prefix =
+        arg.name === 'INDEX' || (arg.name && arg.name.endsWith('_item'))
+          ? `${node.id}-input`
+          : node.id;
+      return prefixOutputArgsKeys(prefix, [arg])[0];
+    });
+
+    // 需要分别根据 -input 和 nodeId 展开
+    const inputPart = prefixedOutputArgs.filter((a) =>
+      a.key.includes('-input'),
+    );
+    const normalPart = prefixedOutputArgs.filter(
+      (a) => !a.key.includes('-input'),
+    );
+    flattenArgsToMap(`${node.id}-input`, inputPart, [], argMap);
+    flattenArgsToMap(Number(node.id), normalPart, [], argMap);
+    return Object.freeze({ outputArgs: prefixedOutputArgs, argMap });
+  }
+
+  const prefixedOutputArgs = prefixOutputArgsKeys(node.id, outputArgs);
+  flattenArgsToMap(Number(node.id), prefixedOutputArgs, [], argMap);
+  return Object.freeze({ outputArgs: prefixedOutputArgs, argMap });
+}
+
+/**
+ * 构建循环内部节点的参数索引：输出转换为 Array_* 类型后再添加前缀
+ */
+function buildLoopInnerArgIndex(
+  node: ChildNode,
+  systemVariables: readonly InputAndOutConfig[],
+): NodeArgIndex {
+  // 转换类型为 Array_ 前缀，并递归处理 subArgs/children
+  const transformed = getNodeOutputArgs(node, systemVariables).map((arg) =>
+    convertArgToLoopArrayType(arg),
+  );
+  return Object.freeze({
+    outputArgs: prefixOutputArgsKeys(node.id, transformed),
+    argMap: flattenArgsToMap(node.id, transformed),
+  });
+}
+
+/**
+ * 读取或创建节点的参数索引缓存条目
+ * Start 节点的输出包含系统变量，不依赖节点自身配置，不写入缓存
+ */
+function getNodeArgIndexEntry(
+  node: ChildNode,
+  cache: NodeArgIndexCache | undefined,
+): NodeArgIndexEntry | undefined {
+  if (!cache || node.type === NodeTypeEnum.Start) return undefined;
+  const nodeId = Number(node.id);
+  const entry = cache.get(nodeId);
+  if (entry && entry.type === node.type) return entry;
+
+  const created: NodeArgIndexEntry = { type: node.type };
+  cache.set(nodeId, created);
+  return created;
+}
+
+/**
+ * 构建循环体内节点可引用的循环变量索引 (同步 Java Line 168-237)
+ * - 引用数组的输入展开为 *_item，类型为数组的元素类型（使用 -input 后缀）
+ * - INDEX 系统变量（使用 -input 后缀）
+ * - 循环变量 variableArgs，引用参数时沿用被引用参数的子属性（使用 -var 后缀）
+ * @param loopNode 循环节点
+ * @param resolve 按引用 key 查找被引用的参数
+ */
+function buildLoopScopeIndex(
+  loopNode: ChildNode,
+  resolve: (key: string) => InputAndOutConfig | undefined,
+): NodeArgIndex {
+  const inputBasedOutputs: InputAndOutConfig[] = [];
+  const varBasedOutputs: InputAndOutConfig[] = [];
+
+  // 1. 数组输入展开为 item
+  loopNode.nodeConfig.inputArgs?.forEach((inputArg) => {
+    if (inputArg.bindValueType !== 'Reference') return;
+    const refArg = resolve(inputArg.bindValue || '');
+    const elementType = refArg && ELEMENT_TYPE_OF.get(refArg.dataType);
+    if (!elementType) return;
+
+    // 子参数只读共享，后续加前缀时会生成新对象
+    inputBasedOutputs.push({
+      ...inputArg,
+      name: `${inputArg.name}_item`,
+      dataType: elementType,
+      subArgs: refArg.subArgs,
+    });
+  });
+
+  // 2. 追加 INDEX 系统变量
+  inputBasedOutputs.push({
+    name: INDEX_SYSTEM_NAME,
+    dataType: DataTypeEnum.Integer,
+    description: 'Array index',
+    require: false,
+    systemVariable: true,
+    bindValueType: undefined,
+    bindValue: '',
+    key: INDEX_SYSTEM_NAME,
+    subArgs: [],
+  });
+
+  // 3. 循环变量 variableArgs
+  loopNode.nodeConfig.variableArgs?.forEach((variableArg) => {
+    const outArg = { ...variableArg };
+    if (variableArg.bindValueType === 'Reference') {
+      const refArg = resolve(variableArg.bindValue || '');
+      if (refArg) {
+        outArg.subArgs = refArg.subArgs;
+      }
+    }
+    varBasedOutputs.push(outArg);
+  });
+
+  // 添加前缀 (匹配后端格式)
+  const inputPrefix = `${loopNode.id}-input`;
+  const varPrefix = `${loopNode.id}-var`;
+  const argMap = flattenArgsToMap(inputPrefix, inputBasedOutputs);
+  flattenArgsToMap(varPrefix, varBasedOutputs, [], argMap);
+  return Object.freeze({
+    outputArgs: [
+      ...prefixOutputArgsKeys(inputPrefix, inputBasedOutputs),
+      ...prefixOutputArgsKeys(varPrefix, varBasedOutputs),
+    ],
+    argMap,
+  });
+}
+
+/**
+ * 解析循环变量 key（{loopId}-input.xxx / {loopId}-var.xxx）所属的循环节点 ID
+ */
+function parseLoopScopeKey(key: string): number | undefined {
+  const prefix = key.slice(0, key.indexOf('.'));
+  const dashIndex = prefix.indexOf('-');
+  return dashIndex > 0 ? Number(prefix.slice(0, dashIndex)) : undefined;
+}
+
+/**
+ * 获取节点所在的外层循环 ID 链（由内向外），循环嵌套数据异常成环时截断
+ */
+function getEnclosingLoopIds(
+  node: ChildNode,
+  nodeMap: ReadonlyMap<number, ChildNode>,
+): number[] {
+  const loopIds: number[] = [];
+  let loopNodeId = node.loopNodeId ? Number(node.loopNodeId) : undefined;
+  while (loopNodeId !== undefined && !loopIds.includes(loopNodeId)) {
+    loopIds.push(loopNodeId);
+    const loopNode = nodeMap.get(loopNodeId);
+    loopNodeId = loopNode?.loopNodeId ? Number(loopNode.loopNodeId) : undefined;
+  }
+  return loopIds;
+}
+
+/**
+ * 基于当前参数映射构建循环变量索引（单节点计算使用）
+ * 引用外层循环变量时按需构建外层循环的索引，与快照中的整体推导结果一致
+ */
+function buildLoopScopeFromArgMap(
+  loopNode: ChildNode,
+  nodeMap: ReadonlyMap<number, ChildNode>,
+  argMap: ArgMap,
+  enclosingIds: number[] = getEnclosingLoopIds(loopNode, nodeMap),
+): NodeArgIndex {
+  const outerScopes = new Map<number, NodeArgIndex>();
+  return buildLoopScopeIndex(loopNode, (key) => {
+    if (argMap[key]) return argMap[key];
+
+    const outerLoopId = parseLoopScopeKey(key);
+    const depth =
+      outerLoopId === undefined ? -1 : enclosingIds.indexOf(outerLoopId);
+    const outerLoop = depth < 0 ? undefined : nodeMap.get(outerLoopId!);
+    if (!outerLoop) return undefined;
+
+    let outerScope = outerScopes.get(outerLoopId!);
+    if (!outerScope) {
+      outerScope = buildLoopScopeFromArgMap(
+        outerLoop,
+        nodeMap,
+        argMap,
+        enclosingIds.slice(depth + 1),
+      );
+      outerScopes.set(outerLoopId!, outerScope);
+    }
+    return outerScope.argMap[key];
+  });
+}
+
+/**
+ * 收集循环节点内从 LoopEnd 反向可达的内部节点（排除 LoopStart/LoopEnd 和其他循环的节点）
+ */
+function collectLoopInnerNodes(
+  loopNode: ChildNode,
+  edgeList: readonly EdgeV3[],
+): ChildNode[] {
+  const endNodeId = loopNode.innerEndNodeId;
+  if (!loopNode.innerNodes || !endNodeId) return [];
+
+  const currentLoopId = Number(loopNode.id);
+
+  // 构建内部节点的反向图
+  const innerNodeMap = new Map<number, ChildNode>();
+  loopNode.innerNodes.forEach((n) => innerNodeMap.set(Number(n.id), n));
+
+  // 过滤出仅属于内部节点之间的边（使用最新的 edgeList）
+  const innerEdgeList = edgeList.filter(
+    (edge) =>
+      innerNodeMap.has(parseInt(edge.source, 10)) &&
+      innerNodeMap.has(parseInt(edge.target, 10)),
+  );
+
+  // 构建内部反向图，使用最新的边数据，从 LoopEnd 开始查找所有前驱
+  const innerReverseGraph = buildReverseGraph(
+    loopNode.innerNodes,
+    innerEdgeList,
+  );
+  const innerPredIds = findAllPredecessors(
+    Number(endNodeId),
+    innerReverseGraph,
+    new Set(),
+    innerNodeMap,
+  );
+
+  // 过滤：只保留属于当前循环的节点 (loopNodeId === loopNode.id)，排除 LoopStart/LoopEnd
+  // 注意：需要使用 Number() 统一类型，因为保存后 loopNode.id 可能变成字符串
+  return innerPredIds
+    .map((id) => innerNodeMap.get(id))
+    .filter(
+      (n): n is ChildNode =>
+        n !== undefined &&
+        Number(n.loopNodeId) === currentLoopId &&
+        n.type !== NodeTypeEnum.LoopStart &&
+        n.type !== NodeTypeEnum.LoopEnd,
+    );
+}
+
+/**
+ * 计算从 Start 节点开始的执行顺序 (同步 Java sortPreviousNodes)
+ * 使用显式栈实现 DFS 先序，子节点逆序入栈以保持与递归版本相同的访问顺序，
+ * 避免长链工作流递归过深
+ */
+function buildExecutionOrderMap(
+  nodeList: ChildNode[],
+  forwardGraph: Map<number, number[]>,
+): Map<number, number> {
+  const orderMap = new Map<number, number>();
+  const startNodeInWorkflow = nodeList.find(
+    (n) => n.type === NodeTypeEnum.Start,
+  );
+  if (startNodeInWorkflow) {
+    let order = 0;
+    const stack: number[] = [Number(startNodeInWorkflow.id)];
+    while (stack.length > 0) {
+      const id = stack.pop()!;
+      if (orderMap.has(id)) continue;
+      orderMap.set(id, order++);
+      const nexts = forwardGraph.get(id) || [];
+      for (let i = nexts.length - 1; i >= 0; i--) {
+        if (!orderMap.has(nexts[i])) {
+          stack.push(nexts[i]);
+        }
+      }
+    }
+  }
+  return orderMap;
+}
+
 // ==================== 主要函数 ====================
 
 /**
@@ -459,119 +802,437 @@ export function calculateNodePreviousArgs(
   // 确保 nodeId 是 number 类型
   const nodeIdNum = Number(nodeId);
 
-  // 1. Get all "logical future nodes". Even with back edges, they cannot be used as predecessor arguments.
+  // Get all "logical future nodes". Even with back edges, they cannot be used as predecessor arguments.
   // Skip Loop → LoopStart edges to avoid incorrectly marking loop body nodes as "future nodes"
   const futureNodes = getForwardReachableNodes(
     nodeIdNum,
     forwardGraph,
     nodeMap,
   );
+  const orderMap = buildExecutionOrderMap(nodeList, forwardGraph);
 
-  // 2. 找到所有前驱节点，并过滤掉自身和逻辑上的未来节点
-  const predecessorIds = findAllPredecessors(
-    nodeIdNum,
-    reverseGraph,
-    new Set(),
+  return assembleNodePreviousArgs(nodeIdNum, {
     nodeMap,
-  ).filter((id) => id !== nodeIdNum && !futureNodes.has(id));
+    getArgIndex: (node) => buildNodeArgIndex(node, systemVariables),
+    getLoopInnerNodes: (loopNode) =>
+      collectLoopInnerNodes(loopNode, edgeList).map((node) => ({
+        node,
+        argIndex: buildLoopInnerArgIndex(node, systemVariables),
+      })),
+    getLoopScope: (loopNode, argMap) =>
+      buildLoopScopeFromArgMap(loopNode, nodeMap, argMap),
+    // 找到所有前驱节点，并过滤掉自身和逻辑上的未来节点
+    getPredecessorIds: (id) =>
+      findAllPredecessors(id, reverseGraph, new Set(), nodeMap).filter(
+        (predId) => predId !== id && !futureNodes.has(predId),
+      ),
+    getExecutionOrder: (id) => orderMap.get(id),
+  });
+}
 
-  // 构建上级节点列表
-  const previousNodes: PreviousList[] = [];
-  const argMap: ArgMap = {};
+/**
+ * 编译工作流的只读快照
+ *
+ * 一次编译整张图（紧凑 ID、CSR 邻接表、祖先/后继位集闭包），
+ * 并预先构建每个节点的参数索引和每个循环节点的内部节点。
+ * 快照及其中的列表均被冻结，调用方只能读取，不能修改。
+ * @param workflowData 工作流数据
+ * @param trace 查询指标记录（可选），记录图编译、参数索引、循环变量各阶段耗时
+ * @param nodeArgIndexCache 节点参数索引缓存（可选），复用未变更节点的参数索引
+ */
+export function compileReferenceSnapshot(
+  workflowData: WorkflowDataV3,
+  trace?: ReferenceQueryTrace,
+  nodeArgIndexCache?: NodeArgIndexCache,
+): ReferenceSnapshot {
+  const {
+    nodes: nodeList,
+    edges: edgeList = [],
+    systemVariables = [],
+  } = workflowData;
 
-  // 提前获取当前节点用于后续过滤
-  const currentNode = nodeMap.get(nodeIdNum);
+  const graph = measurePhase(trace, 'compileGraph', () =>
+    compileReferenceGraph(nodeList, edgeList),
+  );
+  trace?.recordSize('nodes', graph.size);
+  trace?.recordSize('edges', graph.predTargets.length);
+  const nodeMap = buildNodeMap(nodeList);
+  const frozenSystemVariables = Object.freeze([...systemVariables]);
+
+  const argIndex = new Map<number, NodeArgIndex>();
+  const loopInnerNodes = new Map<number, readonly LoopInnerNode[]>();
+  trace?.lap();
+  nodeMap.forEach((node, id) => {
+    const entry = getNodeArgIndexEntry(node, nodeArgIndexCache);
+    const nodeArgIndex =
+      entry?.argIndex || buildNodeArgIndex(node, frozenSystemVariables);
+    if (entry) entry.argIndex = nodeArgIndex;
+    argIndex.set(id, nodeArgIndex);
+
+    if (node.type === NodeTypeEnum.Loop) {
+      const innerNodes = collectLoopInnerNodes(node, edgeList).map((inner) => {
+        const innerEntry = getNodeArgIndexEntry(inner, nodeArgIndexCache);
+        const innerArgIndex =
+          innerEntry?.loopInnerArgIndex ||
+          buildLoopInnerArgIndex(inner, frozenSystemVariables);
+        if (innerEntry) innerEntry.loopInnerArgIndex = innerArgIndex;
+        return Object.freeze({ node: inner, argIndex: innerArgIndex });
+      });
+      loopInnerNodes.set(id, Object.freeze(innerNodes));
+    }
+  });
+  trace?.lap('argIndex');
 
-  predecessorIds.forEach((predId) => {
-    const predNode = nodeMap.get(predId);
-    if (!predNode) return;
+  return Object.freeze({
+    graph,
+    nodeMap,
+    edgeList: Object.freeze([...edgeList]),
+    systemVariables: frozenSystemVariables,
+    argIndex,
+    loopInnerNodes,
+    loopScopes: measurePhase(trace, 'loopScopes', () =>
+      compileLoopScopes(graph, nodeMap, argIndex),
+    ),
+  });
+}
 
-    // 跳过循环相关的内部节点（LoopStart, LoopEnd）
-    if (
-      predNode.type === NodeTypeEnum.LoopStart ||
-      predNode.type === NodeTypeEnum.LoopEnd
-    ) {
-      return;
+/**
+ * 整个工作流的循环变量类型推导，一次完成并保存在快照中
+ *
+ * 按嵌套深度由外向内处理循环节点，循环输入的引用按以下范围解析：
+ * - 循环节点的上级节点（排除 LoopStart/LoopEnd 和自身的内部节点）
+ * - 外层循环的 -input / -var 变量，内层循环可以遍历外层循环 item 的数组子属性
+ * 内部节点查询时直接复用结果，不再逐节点重复推导。
+ */
+function compileLoopScopes(
+  graph: CompiledReferenceGraph,
+  nodeMap: ReadonlyMap<number, ChildNode>,
+  argIndex: ReadonlyMap<number, NodeArgIndex>,
+): ReadonlyMap<number, NodeArgIndex> {
+  const loops: { loopNode: ChildNode; enclosingIds: number[] }[] = [];
+  nodeMap.forEach((node) => {
+    if (node.type === NodeTypeEnum.Loop) {
+      loops.push({
+        loopNode: node,
+        enclosingIds: getEnclosingLoopIds(node, nodeMap),
+      });
     }
+  });
+  loops.sort((a, b) => a.enclosingIds.length - b.enclosingIds.length);
+
+  const loopScopes = new Map<number, NodeArgIndex>();
+  loops.forEach(({ loopNode, enclosingIds }) => {
+    const loopId = Number(loopNode.id);
+    // 从循环体入口（LoopStart）的视角排除未来节点，与循环内部节点的查询保持一致
+    const predecessorIds = new Set(
+      getCompiledPredecessorIds(
+        graph,
+        loopId,
+        Number(loopNode.innerStartNodeId ?? loopId),
+      ),
+    );
 
-    // 如果当前节点在循环内，跳过其所属的 Loop 节点（后面的 loopNodeId 块会单独处理）
-    if (currentNode?.loopNodeId && predNode.id === currentNode.loopNodeId) {
-      return;
-    }
+    const resolve = (key: string): InputAndOutConfig | undefined => {
+      // 外层循环变量：{loopId}-input.xxx / {loopId}-var.xxx
+      const outerLoopId = parseLoopScopeKey(key);
+      if (outerLoopId !== undefined) {
+        return enclosingIds.includes(outerLoopId)
+          ? loopScopes.get(outerLoopId)?.argMap[key]
+          : undefined;
+      }
 
-    // 跳过属于其他循环的内部节点（loopNodeId 存在但不等于当前节点的 loopNodeId）
-    // 注意：使用 Number() 统一类型
-    if (
-      predNode.loopNodeId &&
-      Number(predNode.loopNodeId) !== Number(currentNode?.loopNodeId)
-    ) {
-      return;
-    }
+      const nodeId = Number(key.slice(0, key.indexOf('.')));
+      const predNode = nodeMap.get(nodeId);
+      if (
+        !predNode ||
+        !predecessorIds.has(nodeId) ||
+        predNode.type === NodeTypeEnum.LoopStart ||
+        predNode.type === NodeTypeEnum.LoopEnd ||
+        Number(predNode.loopNodeId) === loopId
+      ) {
+        return undefined;
+      }
+      return argIndex.get(nodeId)?.argMap[key];
+    };
 
-    // 如果当前节点是 Loop，跳过自己的内部节点（这些会在 innerPreviousNodes 中处理）
-    // 注意：使用 Number() 统一类型
-    if (
-      currentNode?.type === NodeTypeEnum.Loop &&
-      Number(predNode.loopNodeId) === Number(currentNode.id)
-    ) {
-      return;
+    loopScopes.set(loopId, buildLoopScopeIndex(loopNode, resolve));
+  });
+  return loopScopes;
+}
+
+/**
+ * 基于只读快照构建图查询上下文
+ */
+function createSnapshotScope(snapshot: ReferenceSnapshot): PreviousArgsScope {
+  const { graph } = snapshot;
+  return {
+    nodeMap: snapshot.nodeMap,
+    getArgIndex: (node) =>
+      snapshot.argIndex.get(Number(node.id)) ||
+      buildNodeArgIndex(node, snapshot.systemVariables),
+    getLoopInnerNodes: (loopNode) =>
+      snapshot.loopInnerNodes.get(Number(loopNode.id)) || [],
+    getLoopScope: (loopNode, argMap) =>
+      snapshot.loopScopes.get(Number(loopNode.id)) ||
+      buildLoopScopeFromArgMap(loopNode, snapshot.nodeMap, argMap),
+    getPredecessorIds: (id, currentNodeId) =>
+      getCompiledPredecessorIds(graph, id, currentNodeId),
+    getExecutionOrder: (id) => getCompiledExecutionOrder(graph, id),
+  };
+}
+
+/**
+ * 基于只读快照计算单个节点的可引用变量
+ * 同一图版本的多次查询应复用同一个快照，避免重复编译
+ * @param nodeId 当前节点ID
+ * @param snapshot compileReferenceSnapshot 生成的快照
+ * @param trace 查询指标记录（可选），记录上级节点、循环变量、排序各阶段耗时
+ */
+export function calculateNodePreviousArgsFromSnapshot(
+  nodeId: number,
+  snapshot: ReferenceSnapshot,
+  trace?: ReferenceQueryTrace,
+): NodePreviousAndArgMap {
+  return assembleNodePreviousArgs(Number(nodeId), {
+    ...createSnapshotScope(snapshot),
+    trace,
+  });
+}
+
+/**
+ * 批量计算工作流中每个节点的可引用变量
+ *
+ * 编译一次只读快照，之后每个节点只需按位集取出上级节点，
+ * 避免逐节点重建图和重复遍历祖先。
+ * @param workflowData 工作流数据
+ * @returns 节点 ID -> 上级节点列表和参数映射
+ */
+export function calculateAllNodesPreviousArgs(
+  workflowData: WorkflowDataV3,
+): Map<number, NodePreviousAndArgMap> {
+  const snapshot = compileReferenceSnapshot(workflowData);
+
+  const results = new Map<number, NodePreviousAndArgMap>();
+  snapshot.graph.ids.forEach((id) => {
+    results.set(id, calculateNodePreviousArgsFromSnapshot(id, snapshot));
+  });
+  return results;
+}
+
+/**
+ * 基于只读快照解析单个引用 key 在节点 argMap 中对应的参数
+ *
+ * 结果与 calculateNodePreviousArgsFromSnapshot(nodeId).argMap[key] 一致，
+ * 但只按 key 前缀定位来源节点并检查可见性，不组装完整的 argMap，
+ * 用于批量校验所有节点的引用。
+ * @param nodeId 引用所在的节点 ID
+ * @param key 引用 key，如 "123.output.field"、"4-input.items_item"
+ * @param snapshot compileReferenceSnapshot 生成的快照
+ */
+export function resolveReferenceFromSnapshot(
+  nodeId: number,
+  key: string,
+  snapshot: ReferenceSnapshot,
+): InputAndOutConfig | undefined {
+  const currentNode = snapshot.nodeMap.get(Number(nodeId));
+  if (!currentNode || !key) return undefined;
+
+  // 当前节点自身的变量最后合并，覆盖其他来源
+  const ownVarPrefix = `${currentNode.id}-var`;
+  if (key.startsWith(`${ownVarPrefix}.`)) {
+    const varBasedOutputs = buildOwnVariableOutputs(currentNode, (refKey) =>
+      resolveMergedReference(currentNode, refKey, snapshot),
+    );
+    const ownArg = flattenArgsToMap(ownVarPrefix, varBasedOutputs)[key];
+    if (ownArg) return ownArg;
+  }
+  return resolveMergedReference(currentNode, key, snapshot);
+}
+
+/**
+ * 解析合并节点自身变量之前的 argMap 中的引用参数
+ * 按组装顺序倒序检查各来源，后合并的来源覆盖先合并的来源
+ */
+function resolveMergedReference(
+  currentNode: ChildNode,
+  key: string,
+  snapshot: ReferenceSnapshot,
+): InputAndOutConfig | undefined {
+  const dotIndex = key.indexOf('.');
+  if (dotIndex <= 0) return undefined;
+
+  const ownerId = parseLoopScopeKey(key) ?? Number(key.slice(0, dotIndex));
+  const owner = snapshot.nodeMap.get(ownerId);
+  if (!owner) return undefined;
+
+  const nodeIdNum = Number(currentNode.id);
+
+  // Loop 节点的内部节点（输出已转换为 Array_* 类型）
+  if (
+    currentNode.type === NodeTypeEnum.Loop &&
+    currentNode.innerNodes &&
+    Number(owner.loopNodeId) === nodeIdNum
+  ) {
+    const inner = snapshot.loopInnerNodes
+      .get(nodeIdNum)
+      ?.find((item) => Number(item.node.id) === ownerId);
+    if (inner?.argIndex.argMap[key]) return inner.argIndex.argMap[key];
+  }
+
+  const loopNodeIdNum = Number(currentNode.loopNodeId);
+  const loopNode = currentNode.loopNodeId
+    ? snapshot.nodeMap.get(loopNodeIdNum)
+    : undefined;
+
+  // 所属循环的循环变量
+  if (loopNode && ownerId === loopNodeIdNum) {
+    const loopScope = snapshot.loopScopes.get(loopNodeIdNum);
+    // 所属节点不是 Loop 类型时快照中没有循环变量，退化为完整计算
+    if (!loopScope) {
+      const { argMap } = calculateNodePreviousArgsFromSnapshot(
+        nodeIdNum,
+        snapshot,
+      );
+      return argMap[key];
     }
+    if (loopScope.argMap[key]) return loopScope.argMap[key];
+  }
 
-    // 获取并处理输出参数，添加 key 前缀
-    const outputArgs = getNodeOutputArgs(predNode, systemVariables);
-
-    // V3: 针对 Loop 节点，部分输出参数使用 -input 前缀以匹配后端格式
-    let prefixedOutputArgs: InputAndOutConfig[];
-    if (predNode.type === NodeTypeEnum.Loop) {
-      prefixedOutputArgs = outputArgs.map((arg) => {
-        // 同步 Java: INDEX 和 _item 使用 -input，其他普通输出使用 nodeId
-        const prefix =
-          arg.name === 'INDEX' || (arg.name && arg.name.endsWith('_item'))
-            ? `${predNode.id}-input`
-            : predNode.id;
-        return prefixOutputArgsKeys(prefix, [arg])[0];
-      });
-    } else {
-      prefixedOutputArgs = prefixOutputArgsKeys(predNode.id, outputArgs);
+  // 当前节点的上级节点，以及所属循环的外部前驱
+  const visible =
+    (isVisiblePredecessor(owner, currentNode) &&
+      isCompiledPredecessor(snapshot.graph, nodeIdNum, ownerId)) ||
+    (loopNode !== undefined &&
+      isVisibleLoopPredecessor(owner, loopNodeIdNum) &&
+      isCompiledPredecessor(snapshot.graph, loopNodeIdNum, ownerId, nodeIdNum));
+  if (!visible) return undefined;
+
+  const argIndex =
+    snapshot.argIndex.get(ownerId) ||
+    buildNodeArgIndex(owner, snapshot.systemVariables);
+  return argIndex.argMap[key];
+}
+
+/**
+ * 构建节点自身的变量输出，引用参数时沿用被引用参数的子属性
+ */
+function buildOwnVariableOutputs(
+  node: ChildNode,
+  resolve: (key: string) => InputAndOutConfig | undefined,
+): InputAndOutConfig[] {
+  return (node.nodeConfig.variableArgs || []).map((variableArg) => {
+    const outArg = { ...variableArg };
+    if (variableArg.bindValueType === 'Reference') {
+      const refArg = resolve(variableArg.bindValue || '');
+      if (refArg) {
+        outArg.subArgs = refArg.subArgs;
+      }
     }
+    return outArg;
+  });
+}
+
+/**
+ * 判断上级节点是否对当前节点可见（其输出参数可以被当前节点引用）
+ */
+function isVisiblePredecessor(
+  predNode: ChildNode,
+  currentNode: ChildNode | undefined,
+): boolean {
+  // 跳过循环相关的内部节点（LoopStart, LoopEnd）
+  if (
+    predNode.type === NodeTypeEnum.LoopStart ||
+    predNode.type === NodeTypeEnum.LoopEnd
+  ) {
+    return false;
+  }
+
+  // 如果当前节点在循环内，跳过其所属的 Loop 节点（后面的 loopNodeId 块会单独处理）
+  if (currentNode?.loopNodeId && predNode.id === currentNode.loopNodeId) {
+    return false;
+  }
+
+  // 跳过属于其他循环的内部节点（loopNodeId 存在但不等于当前节点的 loopNodeId）
+  // 注意：使用 Number() 统一类型
+  if (
+    predNode.loopNodeId &&
+    Number(predNode.loopNodeId) !== Number(currentNode?.loopNodeId)
+  ) {
+    return false;
+  }
+
+  // 如果当前节点是 Loop，跳过自己的内部节点（这些会在 innerPreviousNodes 中处理）
+  // 注意：使用 Number() 统一类型
+  if (
+    currentNode?.type === NodeTypeEnum.Loop &&
+    Number(predNode.loopNodeId) === Number(currentNode.id)
+  ) {
+    return false;
+  }
+
+  return true;
+}
+
+/**
+ * 判断循环节点的外部前驱是否对循环内部节点可见
+ */
+function isVisibleLoopPredecessor(
+  predNode: ChildNode,
+  loopNodeIdNum: number,
+): boolean {
+  // 跳过 LoopStart/LoopEnd 和循环内部的节点
+  return (
+    predNode.type !== NodeTypeEnum.LoopStart &&
+    predNode.type !== NodeTypeEnum.LoopEnd &&
+    predNode.loopNodeId !== loopNodeIdNum
+  );
+}
+
+/**
+ * 根据图查询上下文组装节点的上级节点列表和参数映射
+ */
+function assembleNodePreviousArgs(
+  nodeIdNum: number,
+  scope: PreviousArgsScope,
+): NodePreviousAndArgMap {
+  const { nodeMap, trace } = scope;
+  trace?.lap();
+
+  // 找到所有前驱节点，并过滤掉自身和逻辑上的未来节点
+  const predecessorIds = scope.getPredecessorIds(nodeIdNum, nodeIdNum);
+  trace?.recordSize('ancestors', predecessorIds.length);
+
+  // 构建上级节点列表
+  const previousNodes: PreviousList[] = [];
+  const argMap: ArgMap = {};
+
+  // 提前获取当前节点用于后续过滤
+  const currentNode = nodeMap.get(nodeIdNum);
+
+  predecessorIds.forEach((predId) => {
+    const predNode = nodeMap.get(predId);
+    if (!predNode || !isVisiblePredecessor(predNode, currentNode)) return;
+
+    // 取出预先构建的参数索引（带前缀的输出参数和展开后的参数映射）
+    const argIndex = scope.getArgIndex(predNode);
 
     // 简化逻辑：如果节点没有有效的 outputArgs（无法展示任何可引用变量），跳过此节点
-    if (!prefixedOutputArgs || prefixedOutputArgs.length === 0) {
+    if (argIndex.outputArgs.length === 0) {
       return;
     }
 
     // 添加到上级节点列表 - 确保 id 是数字类型
-    const numericId = Number(predNode.id);
     previousNodes.push({
-      id: numericId,
+      id: Number(predNode.id),
       name: predNode.name,
       type: predNode.type,
       icon: predNode.icon as string,
-      outputArgs: prefixedOutputArgs,
+      outputArgs: argIndex.outputArgs,
     });
 
-    // 展开参数到 argMap
-    // 针对 Loop 节点，需要分别根据 -input 和 nodeId 展开
-    if (predNode.type === NodeTypeEnum.Loop) {
-      const inputPart = prefixedOutputArgs.filter((a) =>
-        a.key.includes('-input'),
-      );
-      const normalPart = prefixedOutputArgs.filter(
-        (a) => !a.key.includes('-input'),
-      );
-      if (inputPart.length > 0) {
-        Object.assign(
-          argMap,
-          flattenArgsToMap(`${predNode.id}-input`, inputPart),
-        );
-      }
-      if (normalPart.length > 0) {
-        Object.assign(argMap, flattenArgsToMap(numericId, normalPart));
-      }
-    } else {
-      Object.assign(argMap, flattenArgsToMap(numericId, prefixedOutputArgs));
-    }
+    Object.assign(argMap, argIndex.argMap);
   });
+  trace?.lap('previousNodes');
 
   // 如果当前节点不存在，直接返回
   if (!currentNode) {
@@ -594,126 +1255,41 @@ export function calculateNodePreviousArgs(
       // 1. 如果当前节点是循环的 innerStartNode，则需要添加循环节点的外部前驱 (Line 106-110)
       // 否则，通过递归遍历最终会到达 innerStartNode 并添加外部前驱 (Line 315-328)
       // 前端简化处理：对于循环内的所有节点，都添加循环的外部前驱
-      const loopPredecessors = findAllPredecessors(
+      const loopPredecessors = scope.getPredecessorIds(
         loopNodeIdNum,
-        reverseGraph,
-        new Set(),
-        nodeMap,
-      ).filter((id) => id !== loopNodeIdNum && !futureNodes.has(id));
+        nodeIdNum,
+      );
 
+      const previousNodeIds = new Set(previousNodes.map((pn) => pn.id));
       loopPredecessors.forEach((predId) => {
         const predNode = nodeMap.get(predId);
-        if (!predNode) return;
-
-        // 跳过 LoopStart/LoopEnd 和循环内部的节点
-        if (
-          predNode.type === NodeTypeEnum.LoopStart ||
-          predNode.type === NodeTypeEnum.LoopEnd ||
-          predNode.loopNodeId === loopNodeIdNum
-        ) {
+        if (!predNode || !isVisibleLoopPredecessor(predNode, loopNodeIdNum)) {
           return;
         }
 
         // 检查是否已经在 previousNodes 中
-        if (previousNodes.some((pn) => pn.id === predId)) {
+        if (previousNodeIds.has(predId)) {
           return;
         }
 
-        const outputArgs = getNodeOutputArgs(predNode, systemVariables);
-        const prefixedOutputArgs = prefixOutputArgsKeys(
-          predNode.id,
-          outputArgs,
-        );
-
-        if (prefixedOutputArgs.length === 0) return;
+        const argIndex = scope.getArgIndex(predNode);
+        if (argIndex.outputArgs.length === 0) return;
 
         previousNodes.push({
           id: predNode.id,
           name: predNode.name,
           type: predNode.type,
           icon: predNode.icon as string,
-          outputArgs: prefixedOutputArgs,
+          outputArgs: argIndex.outputArgs,
         });
+        previousNodeIds.add(predNode.id);
 
-        Object.assign(
-          argMap,
-          flattenArgsToMap(predNode.id, prefixedOutputArgs),
-        );
+        Object.assign(argMap, argIndex.argMap);
       });
 
       // 2. 循环节点自身的输入数组与变量也可作为可引用输出 (Line 168-237)
-      const inputBasedOutputs: InputAndOutConfig[] = [];
-      const varBasedOutputs: InputAndOutConfig[] = [];
-      const argMapSnapshot = { ...argMap };
-
-      // 2.1 数组输入展开为 item (使用 -input 后缀)
-      loopNode.nodeConfig.inputArgs?.forEach((inputArg) => {
-        if (inputArg.bindValueType === 'Reference') {
-          const refArg = argMapSnapshot[inputArg.bindValue || ''];
-          if (
-            refArg &&
-            typeof refArg.dataType === 'string' &&
-            (refArg.dataType as string).startsWith('Array_')
-          ) {
-            const elementType =
-              (refArg.dataType as string).replace('Array_', '') || 'Object';
-            const elementTypeEnum =
-              (DataTypeEnum as any)[elementType] || DataTypeEnum.Object;
-
-            const itemArg: InputAndOutConfig = {
-              ...cloneArg(inputArg),
-              name: `${inputArg.name}_item`,
-              dataType: elementTypeEnum,
-              subArgs: refArg.subArgs
-                ? (JSON.parse(
-                    JSON.stringify(refArg.subArgs),
-                  ) as InputAndOutConfig[])
-                : refArg.subArgs,
-            };
-            inputBasedOutputs.push(itemArg);
-          }
-        }
-      });
-
-      // 2.2 追加 INDEX 系统变量 (使用 -input 后缀)
-      inputBasedOutputs.push({
-        name: INDEX_SYSTEM_NAME,
-        dataType: DataTypeEnum.Integer,
-        description: 'Array index',
-        require: false,
-        systemVariable: true,
-        bindValueType: undefined,
-        bindValue: '',
-        key: INDEX_SYSTEM_NAME,
-        subArgs: [],
-      });
-
-      // 2.3 循环变量 variableArgs (使用 -var 后缀)
-      loopNode.nodeConfig.variableArgs?.forEach((variableArg) => {
-        const outArg = cloneArg(variableArg);
-        if (variableArg.bindValueType === 'Reference') {
-          const refArg = argMapSnapshot[variableArg.bindValue || ''];
-          if (refArg) {
-            outArg.subArgs = refArg.subArgs
-              ? (JSON.parse(
-                  JSON.stringify(refArg.subArgs),
-                ) as InputAndOutConfig[])
-              : refArg.subArgs;
-          }
-        }
-        varBasedOutputs.push(outArg);
-      });
-
-      // 给 extraOutputs 添加前缀 (匹配后端格式)
-      const prefixedInputs = prefixOutputArgsKeys(
-        `${loopNode.id}-input`,
-        inputBasedOutputs,
-      );
-      const prefixedVars = prefixOutputArgsKeys(
-        `${loopNode.id}-var`,
-        varBasedOutputs,
-      );
-      const allExtraOutputs = [...prefixedInputs, ...prefixedVars];
+      const loopScope = scope.getLoopScope(loopNode, argMap);
+      const allExtraOutputs = loopScope.outputArgs;
 
       if (allExtraOutputs.length > 0) {
         // 检查 Loop 节点是否已经在 previousNodes 中
@@ -721,13 +1297,17 @@ export function calculateNodePreviousArgs(
           (item) => Number(item.id) === loopNodeIdNum,
         );
         if (loopIndex > -1) {
-          // 合并输出参数，去重
-          const existingArgs = previousNodes[loopIndex].outputArgs;
+          // 合并输出参数，去重；已有的 outputArgs 来自共享的参数索引，这里生成新数组
+          const existing = previousNodes[loopIndex];
+          const mergedArgs = [...existing.outputArgs];
+          const existingKeys = new Set(mergedArgs.map((ea) => ea.key));
           allExtraOutputs.forEach((newArg) => {
-            if (!existingArgs.some((ea) => ea.key === newArg.key)) {
-              existingArgs.push(newArg);
+            if (!existingKeys.has(newArg.key)) {
+              existingKeys.add(newArg.key);
+              mergedArgs.push(newArg);
             }
           });
+          previousNodes[loopIndex] = { ...existing, outputArgs: mergedArgs };
         } else {
           previousNodes.push({
             id: loopNodeIdNum,
@@ -738,14 +1318,7 @@ export function calculateNodePreviousArgs(
           });
         }
 
-        Object.assign(
-          argMap,
-          flattenArgsToMap(`${loopNode.id}-input`, inputBasedOutputs),
-        );
-        Object.assign(
-          argMap,
-          flattenArgsToMap(`${loopNode.id}-var`, varBasedOutputs),
-        );
+        Object.assign(argMap, loopScope.argMap);
       }
     }
   }
@@ -754,101 +1327,33 @@ export function calculateNodePreviousArgs(
   if (currentNode.type === NodeTypeEnum.Loop) {
     // 1. 从 LoopEnd 节点开始，递归收集所有内部前驱节点 (Line 112-138)
     if (currentNode.innerNodes) {
-      const currentLoopId = Number(currentNode.id);
-
-      // 构建内部节点的反向图
-      const innerNodeMap = new Map<number, ChildNode>();
-      currentNode.innerNodes.forEach((n) => innerNodeMap.set(Number(n.id), n));
-
-      // 过滤出仅属于内部节点之间的边（使用最新的 edgeList）
-      const innerNodeIds = new Set(
-        currentNode.innerNodes.map((n) => Number(n.id)),
-      );
-      const innerEdgeList = edgeList.filter(
-        (edge) =>
-          innerNodeIds.has(parseInt(edge.source, 10)) &&
-          innerNodeIds.has(parseInt(edge.target, 10)),
-      );
-
-      // 构建内部反向图，使用最新的边数据
-      const innerReverseGraph = buildReverseGraph(
-        currentNode.innerNodes,
-        innerEdgeList,
-      );
-
-      // 从 LoopEnd 开始递归查找所有前驱
-      const endNodeId = currentNode.innerEndNodeId;
-      let validInnerNodes: ChildNode[] = [];
-
-      if (endNodeId) {
-        const innerPredIds = findAllPredecessors(
-          Number(endNodeId),
-          innerReverseGraph,
-          new Set(),
-          innerNodeMap,
-        );
-
-        // 过滤：只保留属于当前循环的节点 (loopNodeId === currentNode.id)，排除 LoopStart/LoopEnd
-        // 注意：需要使用 Number() 统一类型，因为保存后 currentNode.id 可能变成字符串
-        validInnerNodes = innerPredIds
-          .map((id) => innerNodeMap.get(id))
-          .filter(
-            (n): n is ChildNode =>
-              n !== undefined &&
-              Number(n.loopNodeId) === currentLoopId &&
-              n.type !== NodeTypeEnum.LoopStart &&
-              n.type !== NodeTypeEnum.LoopEnd,
-          );
-      }
-
       // 只展示有完整连线（从 LoopStart 到 LoopEnd）的节点
       // 未连接完整的节点不应出现在输出变量引用列表中
-
-      validInnerNodes.forEach((innerNode) => {
-        const outputArgs = getNodeOutputArgs(innerNode, systemVariables);
-        if (outputArgs.length === 0) return;
-
-        // 转换类型为 Array_ 前缀，并递归处理 subArgs/children
-        const transformed = outputArgs.map((arg) =>
-          convertArgToLoopArrayType(arg),
-        );
-
-        const prefixedOutputArgs = prefixOutputArgsKeys(
-          innerNode.id,
-          transformed,
-        );
+      scope.getLoopInnerNodes(currentNode).forEach((inner) => {
+        const { node: innerNode, argIndex } = inner;
+        if (argIndex.outputArgs.length === 0) return;
 
         innerPreviousNodes.push({
           id: innerNode.id,
           name: innerNode.name,
           type: innerNode.type,
           icon: innerNode.icon as string,
-          outputArgs: prefixedOutputArgs,
+          outputArgs: argIndex.outputArgs,
           loopNodeId: innerNode.loopNodeId,
         });
 
-        Object.assign(argMap, flattenArgsToMap(innerNode.id, transformed));
+        Object.assign(argMap, argIndex.argMap);
       });
     }
   }
 
   // 2. 循环节点自身的变量 - 只添加 variableArgs，不添加 INDEX (Line 140-167)
   // 注意：后端在此场景只添加 variableArgs，INDEX 是给循环内部节点用的
-  const varBasedOutputs: InputAndOutConfig[] = [];
-  const argMapSnapshot = { ...argMap };
-
-  currentNode.nodeConfig.variableArgs?.forEach((variableArg) => {
-    const outArg = cloneArg(variableArg);
-    if (variableArg.bindValueType === 'Reference') {
-      const refArg = argMapSnapshot[variableArg.bindValue || ''];
-      if (refArg) {
-        outArg.subArgs = refArg.subArgs
-          ? (JSON.parse(JSON.stringify(refArg.subArgs)) as InputAndOutConfig[])
-          : refArg.subArgs;
-      }
-    }
-    varBasedOutputs.push(outArg);
-  });
+  // 构建期间 argMap 不会被修改，直接读取即可，无需复制
+  const varBasedOutputs = buildOwnVariableOutputs(
+    currentNode,
+    (key) => argMap[key],
+  );
 
   if (varBasedOutputs.length > 0) {
     const prefixedVars = prefixOutputArgsKeys(
@@ -864,39 +1369,25 @@ export function calculateNodePreviousArgs(
       outputArgs: prefixedVars,
     });
 
-    Object.assign(
-      argMap,
-      flattenArgsToMap(`${currentNode.id}-var`, varBasedOutputs),
-    );
+    flattenArgsToMap(`${currentNode.id}-var`, varBasedOutputs, [], argMap);
   }
 
-  // 按执行流顺序排序 (同步 Java sortPreviousNodes)
-  const orderMap = new Map<number, number>();
-  const startNodeInWorkflow = nodeList.find(
-    (n) => n.type === NodeTypeEnum.Start,
-  );
-  if (startNodeInWorkflow) {
-    const visited = new Set<number>();
-    let order = 0;
-    const dfs = (id: number) => {
-      if (visited.has(id)) return;
-      visited.add(id);
-      orderMap.set(id, order++);
-      const nexts = forwardGraph.get(id) || [];
-      nexts.forEach(dfs);
-    };
-    dfs(Number(startNodeInWorkflow.id));
-  }
+  trace?.lap('loopVariables');
 
+  // 按执行流顺序排序 (同步 Java sortPreviousNodes)
   const sortByOrder = (a: PreviousList, b: PreviousList) => {
-    const oa = orderMap.get(a.id) ?? Number.MAX_SAFE_INTEGER;
-    const ob = orderMap.get(b.id) ?? Number.MAX_SAFE_INTEGER;
+    const oa = scope.getExecutionOrder(a.id) ?? Number.MAX_SAFE_INTEGER;
+    const ob = scope.getExecutionOrder(b.id) ?? Number.MAX_SAFE_INTEGER;
     if (oa === ob) return b.id - a.id;
     return ob - oa;
   };
 
   previousNodes.sort(sortByOrder);
   innerPreviousNodes.sort(sortByOrder);
+  if (trace) {
+    trace.lap('sort');
+    trace.recordSize('argMapEntries', Object.keys(argMap).length);
+  }
 
   return {
     previousNodes,
@@ -975,6 +1466,8 @@ export function getReferencedArg(
 /**
  * 查找所有引用了指定节点的变量
  *
+ * @deprecated 只检查单个目标节点，需逐个扫描所有节点；
+ * 影响分析请使用 variableReferenceIndex.getReferencesToNode 查询反向索引
  * @param nodeId 被引用的节点 ID
  * @param targetNode 要检查的目标节点
  * @returns 引用列表
@@ -1059,6 +1552,10 @@ export function getAvailableVariables(
 
 export default {
   calculateNodePreviousArgs,
+  calculateAllNodesPreviousArgs,
+  compileReferenceSnapshot,
+  calculateNodePreviousArgsFromSnapshot,
+  resolveReferenceFromSnapshot,
   parseVariableReference,
   isValidReference,
   getReferencedArg,
@@ -0,0 +1,217 @@
+/**
+ * V3 变量引用批量校验
+ *
+ * 校验工作流中所有节点 bindValueType=Reference 的参数：
+ * 1. 引用的变量必须存在于节点的可引用变量（argMap）中
+ * 2. 参数声明的类型必须能接收被引用变量的值（数组与单值不能互相引用）
+ *
+ * 整个工作流只编译一次快照（上级节点位集闭包、参数索引、循环变量），
+ * 每个引用按 key 直接定位来源节点检查可见性，不逐节点组装 argMap，
+ * 校验代价与引用数量成正比。
+ */
+
+import type { DataTypeEnum } from '@/types/enums/common';
+import type { ChildNode } from '../types';
+import {
+  resolveReferenceFromSnapshot,
+  type ReferenceSnapshot,
+} from './variableReferenceV3';
+
+/**
+ * 引用问题类型
+ * - missing: 引用的变量不存在或对当前节点不可见（已删除、断开连线、成为未来节点等）
+ * - typeMismatch: 参数类型无法接收被引用变量的值（上游变量在数组与单值之间修改）
+ */
+export type ReferenceIssueType = 'missing' | 'typeMismatch';
+
+/**
+ * 引用校验问题
+ */
+export interface ReferenceIssueV3 {
+  type: ReferenceIssueType;
+  // 引用所在的节点
+  nodeId: number;
+  // 参数在节点配置中的位置，如 inputArgs.query、conditionBranchConfigs[0].conditionArgs[1].firstArg
+  field: string;
+  // 参数名称
+  name: string;
+  // 引用 key，如 "123.output.field"
+  bindValue: string;
+  // 参数声明的类型
+  dataType?: DataTypeEnum | null;
+  // 被引用变量的类型（typeMismatch 时存在）
+  referencedDataType?: DataTypeEnum | null;
+}
+
+/**
+ * 节点配置中的引用参数
+ */
+export interface ReferenceArg {
+  field: string;
+  name: string;
+  bindValue: string;
+  dataType?: DataTypeEnum | null;
+}
+
+// 节点配置中可能包含引用参数的参数列表字段
+const ARG_LIST_FIELDS = [
+  'inputArgs',
+  'outputArgs',
+  'variableArgs',
+  'conditionArgs',
+  'headers',
+  'body',
+  'queries',
+  'formArgs',
+] as const;
+
+// 兼容 InputAndOutConfig 与条件参数使用的 BindConfigWithSub
+interface ArgLike {
+  name: string;
+  bindValue?: string;
+  bindValueType?: string | null;
+  dataType?: DataTypeEnum | null;
+  subArgs?: ArgLike[];
+  children?: ArgLike[];
+}
+
+/**
+ * 递归收集参数列表（含子参数）中的引用参数
+ */
+function collectArgList(
+  args: ArgLike[] | null | undefined,
+  field: string,
+  result: ReferenceArg[],
+): void {
+  if (!Array.isArray(args)) return;
+  args.forEach((arg) => {
+    if (!arg) return;
+    const argField = `${field}.${arg.name}`;
+    if (arg.bindValueType === 'Reference' && arg.bindValue) {
+      result.push({
+        field: argField,
+        name: arg.name,
+        bindValue: arg.bindValue,
+        dataType: arg.dataType,
+      });
+    }
+    // children 与 subArgs 内容相同（树形组件使用），只在没有 subArgs 时读取
+    collectArgList(
+      arg.subArgs?.length ? arg.subArgs : arg.children,
+      argField,
+      result,
+    );
+  });
+}
+
+/**
+ * 收集条件参数（firstArg/secondArg）中的引用参数
+ */
+function collectConditionArgs(
+  conditionArgs:
+    | { firstArg: ArgLike | null; secondArg: ArgLike | null }[]
+    | undefined,
+  field: string,
+  result: ReferenceArg[],
+): void {
+  conditionArgs?.forEach((conditionArg, index) => {
+    (['firstArg', 'secondArg'] as const).forEach((side) => {
+      const arg = conditionArg?.[side];
+      if (arg?.bindValueType === 'Reference' && arg.bindValue) {
+        result.push({
+          field: `${field}.conditionArgs[${index}].${side}`,
+          name: arg.name,
+          bindValue: arg.bindValue,
+          dataType: arg.dataType,
+        });
+      }
+    });
+  });
+}
+
+/**
+ * 收集节点配置中所有 bindValueType=Reference 的参数
+ * @param node 工作流节点
+ */
+export function collectNodeReferenceArgs(node: ChildNode): ReferenceArg[] {
+  const { nodeConfig } = node;
+  const result: ReferenceArg[] = [];
+  if (!nodeConfig) return result;
+
+  ARG_LIST_FIELDS.forEach((field) => {
+    collectArgList(nodeConfig[field], field, result);
+  });
+  nodeConfig.variableGroups?.forEach((group, index) => {
+    collectArgList(group.inputs, `variableGroups[${index}].inputs`, result);
+  });
+  nodeConfig.conditionBranchConfigs?.forEach((branch, index) => {
+    collectConditionArgs(
+      branch.conditionArgs,
+      `conditionBranchConfigs[${index}]`,
+      result,
+    );
+  });
+  nodeConfig.intentConfigs?.forEach((intent, index) => {
+    collectConditionArgs(
+      intent.conditionArgs,
+      `intentConfigs[${index}]`,
+      result,
+    );
+  });
+  return result;
+}
+
+/**
+ * 参数类型能否接收被引用变量的值
+ * 单值类型之间（文本、数字、对象等）与数组类型之间运行时会转换，
+ * 参数类型也可以在表单中单独修改，只有数组与单值互相引用无法转换
+ */
+const isConvertibleDataType = (
+  dataType: DataTypeEnum,
+  referencedDataType: DataTypeEnum,
+): boolean =>
+  dataType.startsWith('Array_') === referencedDataType.startsWith('Array_');
+
+/**
+ * 基于只读快照校验工作流中所有节点的引用参数
+ * @param snapshot compileReferenceSnapshot 生成的快照
+ * @returns 引用问题列表，按节点顺序排列；为空表示全部引用有效
+ */
+export function validateReferencesFromSnapshot(
+  snapshot: ReferenceSnapshot,
+): ReferenceIssueV3[] {
+  const issues: ReferenceIssueV3[] = [];
+
+  snapshot.nodeMap.forEach((node, nodeId) => {
+    collectNodeReferenceArgs(node).forEach((refArg) => {
+      const target = resolveReferenceFromSnapshot(
+        nodeId,
+        refArg.bindValue,
+        snapshot,
+      );
+      if (!target) {
+        issues.push({ type: 'missing', nodeId, ...refArg });
+        return;
+      }
+      if (
+        refArg.dataType &&
+        target.dataType &&
+        !isConvertibleDataType(refArg.dataType, target.dataType)
+      ) {
+        issues.push({
+          type: 'typeMismatch',
+          nodeId,
+          ...refArg,
+          referencedDataType: target.dataType,
+        });
+      }
+    });
+  });
+
+  return issues;
+}
+
+export default {
+  collectNodeReferenceArgs,
+  validateReferencesFromSnapshot,
+};
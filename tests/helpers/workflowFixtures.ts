@@ -0,0 +1,305 @@
+import fixture1128 from '@/pages/Antv-X6/docs/1128.json';
+import addLoopNodeFixture from '@/pages/Antv-X6/docs/add-loop-node.json';
+import offlineFixture from '@/pages/Antv-X6/docs/offline.json';
+import type {
+  ChildNode,
+  EdgeV3,
+  InputAndOutConfig,
+  WorkflowDataV3,
+} from '@/pages/Antv-X6/v3/types';
+import {
+  BindValueType,
+  DataTypeEnum,
+  ExceptionHandleTypeEnum,
+  NodeTypeEnum,
+} from '@/types/enums/common';
+
+/**
+ * 变量引用测试和基准测试使用的工作流数据：
+ * - 构造参数、引用参数和节点的工厂函数
+ * - docs 目录下的真实工作流
+ * - 按规模生成的合成工作流（长链、宽扇出/扇入、嵌套循环、异常处理流）
+ */
+
+export type SyntheticScenario =
+  | 'chain'
+  | 'diamond'
+  | 'nestedLoop'
+  | 'exception';
+
+export const SYNTHETIC_SCENARIOS: SyntheticScenario[] = [
+  'chain',
+  'diamond',
+  'nestedLoop',
+  'exception',
+];
+
+export const SYNTHETIC_SIZES = [10, 100, 1000, 5000];
+
+/**
+ * 构造参数，key 与名称相同
+ */
+export const arg = (
+  name: string,
+  dataType: DataTypeEnum | string,
+  extra?: Partial<InputAndOutConfig>,
+): InputAndOutConfig => ({
+  name,
+  dataType,
+  description: '',
+  require: false,
+  systemVariable: false,
+  bindValue: '',
+  key: name,
+  subArgs: [],
+  ...extra,
+});
+
+/**
+ * 引用其他变量的参数
+ */
+export const refArg = (
+  name: string,
+  dataType: DataTypeEnum,
+  bindValue: string,
+): InputAndOutConfig =>
+  arg(name, dataType, {
+    bindValueType: BindValueType.Reference,
+    bindValue,
+  });
+
+/**
+ * 没有任何配置的节点，名称为类型 + ID
+ */
+export const createNode = (
+  id: number,
+  type: NodeTypeEnum,
+  extra?: Partial<ChildNode>,
+): ChildNode =>
+  ({
+    id,
+    name: `${type}${id}`,
+    type,
+    icon: '',
+    nextNodeIds: [],
+    nodeConfig: {},
+    ...extra,
+  }) as ChildNode;
+
+// 每个节点输出一个两层嵌套对象和一个对象数组，覆盖子属性展开和循环 item 推导
+const outputArgs = (): InputAndOutConfig[] => [
+  arg('result', DataTypeEnum.Object, {
+    subArgs: [
+      arg('text', DataTypeEnum.String),
+      arg('meta', DataTypeEnum.Object, {
+        subArgs: [
+          arg('score', DataTypeEnum.Number),
+          arg('tags', DataTypeEnum.Array_String),
+        ],
+      }),
+    ],
+  }),
+  arg('list', DataTypeEnum.Array_Object, {
+    subArgs: [
+      arg('id', DataTypeEnum.Integer),
+      arg('name', DataTypeEnum.String),
+    ],
+  }),
+];
+
+const createSyntheticNode = (
+  id: number,
+  type: NodeTypeEnum,
+  extra?: Partial<ChildNode>,
+): ChildNode =>
+  createNode(id, type, { nodeConfig: { outputArgs: outputArgs() }, ...extra });
+
+const link = (from: ChildNode, to: ChildNode) => {
+  from.nextNodeIds = [...(from.nextNodeIds || []), to.id];
+};
+
+const toWorkflow = (
+  nodes: ChildNode[],
+  edges: EdgeV3[] = [],
+): WorkflowDataV3 => ({
+  workflowId: 1,
+  nodes,
+  edges,
+  systemVariables: [arg('SYS_USER_ID', DataTypeEnum.String)],
+});
+
+/**
+ * Start -> Code -> ... -> End
+ */
+const buildChain = (size: number): ChildNode[] => {
+  const nodes = [createSyntheticNode(1, NodeTypeEnum.Start)];
+  for (let id = 2; id < size; id++) {
+    nodes.push(createSyntheticNode(id, NodeTypeEnum.Code));
+    link(nodes[id - 2], nodes[id - 1]);
+  }
+  const end = createSyntheticNode(size, NodeTypeEnum.End);
+  link(nodes[nodes.length - 1], end);
+  nodes.push(end);
+  return nodes;
+};
+
+/**
+ * 由条件节点扇出、再汇聚到合并节点的菱形结构首尾相接，宽度约为 sqrt(size)
+ */
+const buildDiamond = (size: number): ChildNode[] => {
+  const width = Math.max(2, Math.round(Math.sqrt(size)));
+  let nextId = 1;
+  let join = createSyntheticNode(nextId++, NodeTypeEnum.Start);
+  const nodes = [join];
+
+  while (nextId + width + 1 < size) {
+    const split = createSyntheticNode(nextId++, NodeTypeEnum.Condition);
+    const merge = createSyntheticNode(nextId + width, NodeTypeEnum.Code);
+    link(join, split);
+    for (let i = 0; i < width; i++) {
+      const branch = createSyntheticNode(nextId++, NodeTypeEnum.LLM);
+      link(split, branch);
+      link(branch, merge);
+      nodes.push(branch);
+    }
+    nextId++;
+    nodes.push(split, merge);
+    join = merge;
+  }
+
+  const end = createSyntheticNode(nextId, NodeTypeEnum.End);
+  link(join, end);
+  nodes.push(end);
+  return nodes;
+};
+
+/**
+ * 循环节点首尾相接，每个外层循环内嵌一个内层循环：
+ * Loop -> [LoopStart -> Code -> Loop -> [LoopStart -> Code -> LoopEnd] -> Code -> LoopEnd]
+ */
+const buildNestedLoop = (size: number): ChildNode[] => {
+  let nextId = 1;
+  let previous = createSyntheticNode(nextId++, NodeTypeEnum.Start);
+  const nodes = [previous];
+
+  const createLoop = (loopNodeId?: number) => {
+    const loop = createSyntheticNode(nextId++, NodeTypeEnum.Loop, { loopNodeId });
+    loop.nodeConfig.inputArgs = [
+      arg('input', DataTypeEnum.Array_Object, {
+        bindValueType: BindValueType.Reference,
+        bindValue: `${previous.id}.list`,
+      }),
+    ];
+    loop.nodeConfig.variableArgs = [arg('total', DataTypeEnum.Integer)];
+    const loopStart = createSyntheticNode(nextId++, NodeTypeEnum.LoopStart, {
+      loopNodeId: loop.id,
+    });
+    const body = createSyntheticNode(nextId++, NodeTypeEnum.Code, {
+      loopNodeId: loop.id,
+    });
+    link(loop, loopStart);
+    link(loopStart, body);
+    loop.innerStartNodeId = loopStart.id;
+    return { loop, loopStart, body };
+  };
+
+  const closeLoop = (
+    { loop, loopStart, body }: ReturnType<typeof createLoop>,
+    tail: ChildNode,
+  ) => {
+    const loopEnd = createSyntheticNode(nextId++, NodeTypeEnum.LoopEnd, {
+      loopNodeId: loop.id,
+    });
+    link(tail, loopEnd);
+    link(loopEnd, loop);
+    loop.innerEndNodeId = loopEnd.id;
+    loop.innerNodes = [loopStart, body, loopEnd];
+    nodes.push(loop, loopStart, body, loopEnd);
+    return loopEnd;
+  };
+
+  // 每组 9 个节点
+  while (nodes.length + 9 <= size) {
+    const outer = createLoop();
+    link(previous, outer.loop);
+    const inner = createLoop(outer.loop.id);
+    link(outer.body, inner.loop);
+    closeLoop(inner, inner.body);
+    const after = createSyntheticNode(nextId++, NodeTypeEnum.Code, {
+      loopNodeId: outer.loop.id,
+    });
+    link(inner.loop, after);
+    closeLoop(outer, after);
+    outer.loop.innerNodes = [...outer.loop.innerNodes!, inner.loop, after];
+    nodes.push(after);
+    previous = outer.loop;
+  }
+
+  const end = createSyntheticNode(nextId, NodeTypeEnum.End);
+  link(previous, end);
+  nodes.push(end);
+  return nodes;
+};
+
+/**
+ * 长链上每个节点都配置异常处理流，跳转到后续若干节点，并用 edgeList 补充部分连线
+ */
+const buildException = (size: number): WorkflowDataV3 => {
+  const nodes = buildChain(size);
+  const edges: EdgeV3[] = [];
+  nodes.forEach((node, index) => {
+    const targets = nodes.slice(index + 2, index + 5).map((item) => item.id);
+    if (targets.length === 0) return;
+    node.nodeConfig.exceptionHandleConfig = {
+      exceptionHandleType: ExceptionHandleTypeEnum.EXECUTE_EXCEPTION_FLOW,
+      timeout: 180,
+      retryCount: 0,
+      exceptionHandleNodeIds: targets,
+    };
+    if (index % 3 === 0) {
+      edges.push({
+        source: String(node.id),
+        target: String(targets[targets.length - 1]),
+      });
+    }
+  });
+  return toWorkflow(nodes, edges);
+};
+
+export const buildSyntheticWorkflow = (
+  scenario: SyntheticScenario,
+  size: number,
+): WorkflowDataV3 => {
+  switch (scenario) {
+    case 'chain':
+      return toWorkflow(buildChain(size));
+    case 'diamond':
+      return toWorkflow(buildDiamond(size));
+    case 'nestedLoop':
+      return toWorkflow(buildNestedLoop(size));
+    case 'exception':
+      return buildException(size);
+  }
+};
+
+const fromWorkflowDetail = (detail: any): WorkflowDataV3 => ({
+  workflowId: detail.id,
+  nodes: detail.nodes,
+  edges: [],
+});
+
+/**
+ * docs 目录下的真实工作流，add-loop-node.json 只包含一个循环节点及其内部节点
+ */
+export const FIXTURE_WORKFLOWS: Record<string, WorkflowDataV3> = {
+  '1128.json': fromWorkflowDetail(fixture1128.data),
+  'offline.json': fromWorkflowDetail(offlineFixture.data),
+  'add-loop-node.json': {
+    workflowId: addLoopNodeFixture.data.workflowId,
+    nodes: [
+      addLoopNodeFixture.data,
+      ...addLoopNodeFixture.data.innerNodes,
+    ] as any,
+    edges: [],
+  },
+};
@@ -0,0 +1,172 @@
+import type {
+  NodePreviousAndArgMap,
+  WorkflowDataV3,
+} from '@/pages/Antv-X6/v3/types';
+import { VariableReferenceCacheV3 } from '@/pages/Antv-X6/v3/utils/variableReferenceCacheV3';
+import {
+  compileReferenceSnapshot,
+  type NodeArgIndexCache,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceV3';
+import { NodeTypeEnum } from '@/types/enums/common';
+import { describe, expect, test } from 'vitest';
+import { createNode } from './helpers/workflowFixtures';
+
+// 1 -> 2 -> 3, 1 -> 4
+const workflow: WorkflowDataV3 = {
+  workflowId: 1,
+  nodes: [
+    createNode(1, NodeTypeEnum.Start, { nextNodeIds: [2, 4] }),
+    createNode(2, NodeTypeEnum.Code, { nextNodeIds: [3] }),
+    createNode(3, NodeTypeEnum.Code),
+    createNode(4, NodeTypeEnum.Code),
+  ],
+  edges: [],
+};
+
+const result = (): NodePreviousAndArgMap => ({
+  previousNodes: [],
+  innerPreviousNodes: [],
+  argMap: {},
+});
+
+describe('VariableReferenceCacheV3', () => {
+  test('should count hits and misses', () => {
+    const cache = new VariableReferenceCacheV3();
+    const value = result();
+
+    expect(cache.get(1, 2)).toBeUndefined();
+    cache.set(1, 2, value);
+    expect(cache.get(1, 2)).toBe(value);
+
+    expect(cache.getStats()).toMatchObject({ hits: 1, misses: 1, entries: 1 });
+  });
+
+  test('should only invalidate downstream nodes of a change', () => {
+    const cache = new VariableReferenceCacheV3();
+    cache.setSnapshot(1, compileReferenceSnapshot(workflow));
+    [1, 2, 3, 4].forEach((id) => cache.set(1, id, result()));
+
+    cache.invalidateNodes(1, [2]);
+
+    expect(cache.getVersion(1)).toBe(1);
+    expect(cache.get(1, 1)).toBeTruthy();
+    expect(cache.get(1, 4)).toBeTruthy();
+    expect(cache.get(1, 2)).toBeUndefined();
+    expect(cache.get(1, 3)).toBeUndefined();
+    expect(cache.getStats().invalidations).toBe(2);
+    expect(cache.getSnapshot(1)).toBeUndefined();
+  });
+
+  test('should keep invalidating downstream only across edits', () => {
+    const cache = new VariableReferenceCacheV3();
+    cache.setSnapshot(1, compileReferenceSnapshot(workflow));
+    [1, 2, 3, 4].forEach((id) => cache.set(1, id, result()));
+
+    // 两次变更之间没有查询，快照未重新编译
+    cache.invalidateNodes(1, [3]);
+    cache.invalidateNodes(1, [4]);
+
+    expect(cache.get(1, 1)).toBeTruthy();
+    expect(cache.get(1, 2)).toBeTruthy();
+    expect(cache.get(1, 3)).toBeUndefined();
+    expect(cache.get(1, 4)).toBeUndefined();
+  });
+
+  test('should invalidate the whole workflow without a snapshot', () => {
+    const cache = new VariableReferenceCacheV3();
+    cache.set(1, 1, result());
+    cache.set(2, 1, result());
+
+    cache.invalidateNodes(1, [1]);
+
+    expect(cache.get(1, 1)).toBeUndefined();
+    expect(cache.get(2, 1)).toBeTruthy();
+  });
+
+  test('should reuse arg indexes of unchanged nodes across versions', () => {
+    const cache = new VariableReferenceCacheV3();
+    const first = compileReferenceSnapshot(
+      workflow,
+      undefined,
+      cache.getNodeArgIndexCache(1),
+    );
+    cache.setSnapshot(1, first);
+
+    cache.invalidateNodes(1, [2]);
+    const second = compileReferenceSnapshot(
+      workflow,
+      undefined,
+      cache.getNodeArgIndexCache(1),
+    );
+
+    expect(second.argIndex.get(3)).toBe(first.argIndex.get(3));
+    expect(second.argIndex.get(2)).not.toBe(first.argIndex.get(2));
+    // Start 节点的输出包含系统变量，不写入缓存
+    expect(cache.getNodeArgIndexCache(1).has(1)).toBe(false);
+
+    cache.invalidateWorkflow(1);
+    expect(cache.getNodeArgIndexCache(1).size).toBe(0);
+  });
+
+  test('should compile the snapshot once per workflow version', () => {
+    const cache = new VariableReferenceCacheV3();
+    let compiles = 0;
+    const compile = (nodeArgIndexCache: NodeArgIndexCache) => {
+      compiles++;
+      return compileReferenceSnapshot(workflow, undefined, nodeArgIndexCache);
+    };
+
+    const first = cache.getOrCompileSnapshot(1, compile);
+    expect(cache.getOrCompileSnapshot(1, compile)).toBe(first);
+    expect(compiles).toBe(1);
+
+    // 不同工作流各自编译，互不影响
+    cache.getOrCompileSnapshot(2, compile);
+    expect(compiles).toBe(2);
+
+    // 图变更后的下一次请求重新编译
+    cache.invalidateNodes(1, [2]);
+    expect(cache.getOrCompileSnapshot(1, compile)).not.toBe(first);
+    expect(compiles).toBe(3);
+    expect(cache.getStats()).toMatchObject({
+      snapshotBuilds: 3,
+      snapshotReuses: 1,
+    });
+
+    // 编译失败不写入缓存
+    expect(cache.getOrCompileSnapshot(3, () => undefined)).toBeUndefined();
+    expect(cache.getSnapshot(3)).toBeUndefined();
+  });
+
+  test('should bound delta history and drop it with the workflow', () => {
+    const cache = new VariableReferenceCacheV3({ maxHistoryWeight: 2 });
+    const value = (): NodePreviousAndArgMap => ({
+      ...result(),
+      argMap: { '1.a': {} as any },
+    });
+    [1, 2, 3].forEach((id) => cache.set(1, id, value()));
+    cache.set(2, 1, value());
+
+    // 没有快照时整个工作流失效，被失效的结果记入历史
+    cache.invalidateNodes(1, [1]);
+    cache.invalidateNodes(2, [1]);
+    expect(cache.getStats().historyWeight).toBe(2);
+
+    cache.invalidateWorkflow(2);
+    expect(cache.getStats().historyWeight).toBe(1);
+    cache.invalidateWorkflow(1);
+    expect(cache.getStats().historyWeight).toBe(0);
+  });
+
+  test('should evict least recently used entries when full', () => {
+    const cache = new VariableReferenceCacheV3({ maxEntries: 2 });
+    cache.set(1, 1, result());
+    cache.set(1, 2, result());
+    cache.get(1, 1);
+    cache.set(1, 3, result());
+
+    expect(cache.get(1, 2)).toBeUndefined();
+    expect(cache.get(1, 1)).toBeTruthy();
+    expect(cache.getStats().evictions).toBe(1);
+  });
+});
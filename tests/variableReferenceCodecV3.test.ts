@@ -0,0 +1,124 @@
+import {
+  type CompactReferenceResultV3,
+  decodeReferenceResult,
+  encodeReferenceResult,
+  serializeReferenceResult,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceCodecV3';
+import {
+  calculateNodePreviousArgsFromSnapshot,
+  compileReferenceSnapshot,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceV3';
+import { NodeTypeEnum } from '@/types/enums/common';
+import { describe, expect, test } from 'vitest';
+import {
+  buildSyntheticWorkflow,
+  FIXTURE_WORKFLOWS,
+} from './helpers/workflowFixtures';
+
+const workflow = FIXTURE_WORKFLOWS['1128.json'];
+const snapshot = compileReferenceSnapshot(workflow);
+const results = workflow.nodes.map((node) =>
+  calculateNodePreviousArgsFromSnapshot(node.id, snapshot),
+);
+
+// 含循环的工作流：循环节点及其内部节点的结果
+const loopWorkflows = [
+  buildSyntheticWorkflow('nestedLoop', 100),
+  FIXTURE_WORKFLOWS['add-loop-node.json'],
+];
+const loopResults = loopWorkflows.flatMap((loopWorkflow) => {
+  const loopSnapshot = compileReferenceSnapshot(loopWorkflow);
+  return loopWorkflow.nodes
+    .filter((node) => node.type === NodeTypeEnum.Loop || node.loopNodeId)
+    .map((node) => ({
+      node,
+      result: calculateNodePreviousArgsFromSnapshot(node.id, loopSnapshot),
+    }));
+});
+
+const argKeys = (compact: CompactReferenceResultV3) =>
+  compact.args.map((arg) => JSON.stringify(arg));
+
+describe('variableReferenceCodecV3', () => {
+  test('should round-trip results through the compact format', () => {
+    results.forEach((result) => {
+      const json = [...serializeReferenceResult(result, {}, 256)].join('');
+
+      expect(json).toBe(JSON.stringify(encodeReferenceResult(result)));
+      expect(decodeReferenceResult(JSON.parse(json))).toEqual(result);
+    });
+  });
+
+  test('should serialize each arg only once', () => {
+    const nestedLoop = buildSyntheticWorkflow('nestedLoop', 100);
+    const last = nestedLoop.nodes[nestedLoop.nodes.length - 1];
+    const result = calculateNodePreviousArgsFromSnapshot(
+      last.id,
+      compileReferenceSnapshot(nestedLoop),
+    );
+    const compact = encodeReferenceResult(result);
+
+    expect(new Set(argKeys(compact)).size).toBe(compact.args.length);
+    expect(JSON.stringify(compact).length).toBeLessThan(
+      JSON.stringify(result).length / 2,
+    );
+  });
+
+  test('should round-trip loop and loop inner node results', () => {
+    expect(loopResults.some(({ node }) => node.loopNodeId)).toBe(true);
+    loopResults.forEach(({ result }) => {
+      const json = [...serializeReferenceResult(result, {}, 256)].join('');
+      const compact = encodeReferenceResult(result);
+
+      expect(json).toBe(JSON.stringify(compact));
+      expect(new Set(argKeys(compact)).size).toBe(compact.args.length);
+      expect(decodeReferenceResult(JSON.parse(json))).toEqual(result);
+    });
+  });
+
+  test('should keep loop variables when filtering argMap by loop node', () => {
+    loopResults
+      .filter(({ node }) => node.loopNodeId)
+      .forEach(({ node, result }) => {
+        const loopNodeId = Number(node.loopNodeId);
+        const decoded = decodeReferenceResult(
+          encodeReferenceResult(result, { argMapNodeIds: [loopNodeId] }),
+        );
+        const expected = Object.keys(result.argMap).filter(
+          (key) => parseInt(key, 10) === loopNodeId,
+        );
+
+        expect(expected.some((key) => key.includes('-input'))).toBe(true);
+        expect(Object.keys(decoded.argMap)).toEqual(expected);
+        expected.forEach((key) => {
+          expect(decoded.argMap[key]).toEqual(result.argMap[key]);
+        });
+        expect(
+          decodeReferenceResult(
+            encodeReferenceResult(result, { omitArgMap: true }),
+          ),
+        ).toEqual({ ...result, argMap: {} });
+      });
+  });
+
+  test('should omit or filter argMap on request', () => {
+    const result = results.reduce((largest, item) =>
+      Object.keys(item.argMap).length > Object.keys(largest.argMap).length
+        ? item
+        : largest,
+    );
+    const nodeId = result.previousNodes[0].id;
+
+    expect(encodeReferenceResult(result, { omitArgMap: true }).argMap).toBe(
+      undefined,
+    );
+    const filtered = encodeReferenceResult(result, {
+      argMapNodeIds: [nodeId],
+    });
+    expect(Object.keys(filtered.argMap!)).toEqual(
+      Object.keys(result.argMap).filter(
+        (key) => parseInt(key, 10) === Number(nodeId),
+      ),
+    );
+  });
+});
@@ -0,0 +1,94 @@
+import type {
+  ChildNode,
+  NodePreviousAndArgMap,
+} from '@/pages/Antv-X6/v3/types';
+import { VariableReferenceCacheV3 } from '@/pages/Antv-X6/v3/utils/variableReferenceCacheV3';
+import {
+  isEmptyReferenceDelta,
+  type ReferenceResultDeltaV3,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceDeltaV3';
+import {
+  calculateNodePreviousArgsFromSnapshot,
+  compileReferenceSnapshot,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceV3';
+import { DataTypeEnum } from '@/types/enums/common';
+import { describe, expect, test } from 'vitest';
+import { arg, buildSyntheticWorkflow } from './helpers/workflowFixtures';
+
+describe('variableReferenceDeltaV3', () => {
+  const workflow = buildSyntheticWorkflow('diamond', 30);
+  const cache = new VariableReferenceCacheV3();
+
+  const query = (nodeId: number): NodePreviousAndArgMap => {
+    const cached = cache.get(workflow.workflowId, nodeId);
+    if (cached) return cached;
+    let snapshot = cache.getSnapshot(workflow.workflowId);
+    if (!snapshot) {
+      snapshot = cache.setSnapshot(
+        workflow.workflowId,
+        compileReferenceSnapshot(
+          workflow,
+          undefined,
+          cache.getNodeArgIndexCache(workflow.workflowId),
+        ),
+      );
+    }
+    const result = calculateNodePreviousArgsFromSnapshot(nodeId, snapshot);
+    cache.set(workflow.workflowId, nodeId, result);
+    return result;
+  };
+
+  test('should return only the changed args since the held version', () => {
+    const changed = workflow.nodes[3] as ChildNode;
+    const last = workflow.nodes[workflow.nodes.length - 1];
+    const heldVersion = cache.getVersion(workflow.workflowId);
+    query(last.id);
+
+    // 图未变更：增量为空
+    const unaffected = cache.getDelta(
+      workflow.workflowId,
+      last.id,
+      heldVersion,
+    );
+    expect(unaffected?.full).toBe(false);
+    expect(isEmptyReferenceDelta(unaffected as ReferenceResultDeltaV3)).toBe(
+      true,
+    );
+
+    changed.nodeConfig = {
+      ...changed.nodeConfig,
+      outputArgs: [
+        ...(changed.nodeConfig.outputArgs || []),
+        arg('added', DataTypeEnum.String),
+      ],
+    };
+    cache.invalidateNodes(workflow.workflowId, [changed.id]);
+    const current = query(last.id);
+
+    const delta = cache.getDelta(
+      workflow.workflowId,
+      last.id,
+      heldVersion,
+    ) as ReferenceResultDeltaV3;
+    expect(delta.full).toBe(false);
+    expect(Object.keys(delta.argMap.added)).toContain(`${changed.id}.added`);
+    expect(delta.argMap.removed).toEqual([]);
+    expect(delta.previousNodes.changed.map((item) => item.id)).toEqual([
+      changed.id,
+    ]);
+    expect(delta.previousNodes.order).toEqual(
+      current.previousNodes.map((item) => Number(item.id)),
+    );
+  });
+
+  test('should fall back to the full result for unknown versions', () => {
+    const last = workflow.nodes[workflow.nodes.length - 1];
+    const current = query(last.id);
+
+    expect(cache.getDelta(workflow.workflowId, last.id, -1)).toEqual({
+      full: true,
+      version: cache.getVersion(workflow.workflowId),
+      result: current,
+    });
+  });
+});
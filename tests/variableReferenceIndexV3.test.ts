@@ -0,0 +1,80 @@
+import type { ChildNode, InputAndOutConfig } from '@/pages/Antv-X6/v3/types';
+import { VariableReferenceIndexV3 } from '@/pages/Antv-X6/v3/utils/variableReferenceIndexV3';
+import { DataTypeEnum, NodeTypeEnum } from '@/types/enums/common';
+import { describe, expect, test } from 'vitest';
+import { createNode, refArg } from './helpers/workflowFixtures';
+
+// 只有输入参数的代码节点
+const node = (id: number, inputArgs: InputAndOutConfig[]): ChildNode =>
+  createNode(id, NodeTypeEnum.Code, { nodeConfig: { inputArgs } });
+
+const ref = (name: string, bindValue: string) =>
+  refArg(name, DataTypeEnum.String, bindValue);
+
+const locations = (items: { nodeId: number; bindValue: string }[]) =>
+  items.map(({ nodeId, bindValue }) => `${nodeId}:${bindValue}`).sort();
+
+describe('VariableReferenceIndexV3', () => {
+  const buildIndex = () => {
+    const index = new VariableReferenceIndexV3();
+    index.rebuild([
+      node(2, [ref('text', '1.output'), ref('field', '1.output.field')]),
+      node(3, [ref('item', '4-input.list_item'), ref('other', '10.output')]),
+      node(5, [ref('total', '4-var.total'), ref('text', '1.output')]),
+    ]);
+    return index;
+  };
+
+  test('should look up references by referenced node', () => {
+    const index = buildIndex();
+
+    expect(locations(index.getReferencesToNode(1))).toEqual([
+      '2:1.output',
+      '2:1.output.field',
+      '5:1.output',
+    ]);
+    // 循环变量归属于循环节点
+    expect(locations(index.getReferencesToNode(4))).toEqual([
+      '3:4-input.list_item',
+      '5:4-var.total',
+    ]);
+    // 按完整节点 ID 归属，10.output 不属于节点 1
+    expect(locations(index.getReferencesToNode(10))).toEqual(['3:10.output']);
+    expect(index.getReferencesToNode(6)).toEqual([]);
+  });
+
+  test('should update entries incrementally', () => {
+    const index = buildIndex();
+
+    index.updateNode(node(2, [ref('text', '3.result')]));
+    expect(locations(index.getReferencesToNode(1))).toEqual(['5:1.output']);
+    expect(locations(index.getReferencesToNode(3))).toEqual(['2:3.result']);
+
+    // 删除引用方节点只移除它自己的条目，指向被删除节点的引用仍可查询
+    index.removeNode(3);
+    expect(locations(index.getReferencesToNode(4))).toEqual(['5:4-var.total']);
+    expect(locations(index.getReferencesToNode(3))).toEqual(['2:3.result']);
+    expect(locations(index.getReferencesToNode(10))).toEqual([]);
+  });
+
+  test('should index {{key}} references in prompt fields', () => {
+    const index = new VariableReferenceIndexV3();
+    index.rebuild([
+      createNode(7, NodeTypeEnum.LLM, {
+        nodeConfig: {
+          systemPrompt: 'Use {{1.output}} and {{ 4-var.total }}',
+          userPrompt: '{{1.output.field}} {{1.output.field}} {{name}}',
+        },
+      }),
+    ]);
+
+    expect(locations(index.getReferencesToNode(1))).toEqual([
+      '7:1.output',
+      '7:1.output.field',
+    ]);
+    expect(index.getReferencesToNode(4)[0]).toMatchObject({
+      field: 'systemPrompt',
+      bindValue: '4-var.total',
+    });
+  });
+});
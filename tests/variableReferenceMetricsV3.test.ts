@@ -0,0 +1,83 @@
+import { VariableReferenceMetricsV3 } from '@/pages/Antv-X6/v3/utils/variableReferenceMetricsV3';
+import {
+  calculateNodePreviousArgsFromSnapshot,
+  compileReferenceSnapshot,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceV3';
+import { afterEach, describe, expect, test, vi } from 'vitest';
+import { buildSyntheticWorkflow } from './helpers/workflowFixtures';
+
+describe('VariableReferenceMetricsV3', () => {
+  afterEach(() => {
+    vi.restoreAllMocks();
+  });
+
+  test('should record phase timings and graph sizes without changing results', () => {
+    const metrics = new VariableReferenceMetricsV3();
+    const workflow = buildSyntheticWorkflow('nestedLoop', 40);
+    const nodeId = workflow.nodes[30].id;
+    const expected = calculateNodePreviousArgsFromSnapshot(
+      nodeId,
+      compileReferenceSnapshot(workflow),
+    );
+
+    const trace = metrics.startQuery(workflow.workflowId, nodeId)!;
+    const result = calculateNodePreviousArgsFromSnapshot(
+      nodeId,
+      compileReferenceSnapshot(workflow, trace),
+      trace,
+    );
+    trace.end();
+    trace.end();
+
+    expect(result).toEqual(expected);
+    const stats = metrics.getStats();
+    expect(stats.total.count).toBe(1);
+    expect(Object.keys(stats.phases).sort()).toEqual(
+      [
+        'argIndex',
+        'compileGraph',
+        'loopScopes',
+        'loopVariables',
+        'previousNodes',
+        'sort',
+      ].sort(),
+    );
+    expect(stats.sizes.nodes?.max).toBe(workflow.nodes.length);
+    expect(stats.sizes.argMapEntries?.max).toBe(
+      Object.keys(result.argMap).length,
+    );
+  });
+
+  test('should keep the most recent slow queries and support disabling', () => {
+    vi.spyOn(console, 'warn').mockImplementation(() => {});
+    const metrics = new VariableReferenceMetricsV3({
+      slowQueryThresholdMs: 0,
+      slowQueryLogSize: 2,
+    });
+
+    [1, 2, 3].forEach((nodeId) => {
+      const trace = metrics.startQuery(7, nodeId)!;
+      trace.measure('collect', () => nodeId);
+      trace.end();
+    });
+
+    expect(
+      metrics.getStats().slowQueries.map(({ workflowId, nodeId }) => ({
+        workflowId,
+        nodeId,
+      })),
+    ).toEqual([
+      { workflowId: 7, nodeId: 2 },
+      { workflowId: 7, nodeId: 3 },
+    ]);
+    expect(
+      metrics.getStats().slowQueries[0].phases.collect,
+    ).toBeGreaterThanOrEqual(0);
+
+    const disabled = new VariableReferenceMetricsV3({ enabled: false });
+    expect(disabled.startQuery(7, 1)).toBeUndefined();
+
+    metrics.reset();
+    expect(metrics.getStats().total.count).toBe(0);
+  });
+});
@@ -0,0 +1,67 @@
+import type { ChildNode, WorkflowDataV3 } from '@/pages/Antv-X6/v3/types';
+import { mergeFormValuesIntoNode } from '@/pages/Antv-X6/v3/utils/nodeUtils';
+import { variableReferenceCache } from '@/pages/Antv-X6/v3/utils/variableReferenceCacheV3';
+import {
+  invalidateNodeReferences,
+  queryNodePreviousArgs,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceQueryV3';
+import { DataTypeEnum, NodeTypeEnum } from '@/types/enums/common';
+import { afterEach, describe, expect, test } from 'vitest';
+import { arg, createNode } from './helpers/workflowFixtures';
+
+const WORKFLOW_ID = 9001;
+
+// 模拟画布：Start -> Code -> End，表单编辑直接替换画布上的节点数据
+const createCanvas = () => {
+  const nodes: ChildNode[] = [
+    createNode(1, NodeTypeEnum.Start, { nextNodeIds: [2] }),
+    createNode(2, NodeTypeEnum.Code, {
+      nextNodeIds: [3],
+      nodeConfig: { outputArgs: [arg('result', DataTypeEnum.String)] },
+    }),
+    createNode(3, NodeTypeEnum.End),
+  ];
+  const collect = (): WorkflowDataV3 => ({
+    workflowId: WORKFLOW_ID,
+    nodes,
+    edges: [],
+  });
+  const editForm = (index: number, values: Record<string, any>) => {
+    nodes[index] = mergeFormValuesIntoNode(nodes[index], values, values);
+    invalidateNodeReferences(WORKFLOW_ID, nodes[index]);
+  };
+  return { nodes, collect, editForm };
+};
+
+describe('variableReferenceQueryV3', () => {
+  afterEach(() => {
+    variableReferenceCache.invalidateWorkflow(WORKFLOW_ID);
+  });
+
+  test('should return renamed output args after a form edit', () => {
+    const { collect, editForm } = createCanvas();
+    const before = queryNodePreviousArgs(WORKFLOW_ID, 3, collect);
+    expect(before?.argMap['2.result']).toBeTruthy();
+
+    editForm(1, { outputArgs: [arg('summary', DataTypeEnum.Integer)] });
+
+    const after = queryNodePreviousArgs(WORKFLOW_ID, 3, collect);
+    expect(after?.argMap['2.result']).toBeUndefined();
+    expect(after?.argMap['2.summary']).toMatchObject({
+      dataType: DataTypeEnum.Integer,
+    });
+  });
+
+  test('should keep cached results of upstream nodes', () => {
+    const { collect, editForm } = createCanvas();
+    const code = queryNodePreviousArgs(WORKFLOW_ID, 2, collect);
+
+    editForm(2, { outputArgs: [arg('answer', DataTypeEnum.String)] });
+
+    expect(queryNodePreviousArgs(WORKFLOW_ID, 2, collect)).toBe(code);
+  });
+
+  test('should return undefined without workflow data', () => {
+    expect(queryNodePreviousArgs(WORKFLOW_ID, 1, () => null)).toBeUndefined();
+  });
+});
@@ -0,0 +1,97 @@
+import type { WorkflowDataV3 } from '@/pages/Antv-X6/v3/types';
+import { serializeReferenceResult } from '@/pages/Antv-X6/v3/utils/variableReferenceCodecV3';
+import {
+  calculateAllNodesPreviousArgs,
+  calculateNodePreviousArgs,
+  calculateNodePreviousArgsFromSnapshot,
+  compileReferenceSnapshot,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceV3';
+import { bench, describe } from 'vitest';
+import {
+  buildSyntheticWorkflow,
+  FIXTURE_WORKFLOWS,
+  SYNTHETIC_SCENARIOS,
+  SYNTHETIC_SIZES,
+} from './helpers/workflowFixtures';
+
+/**
+ * 变量引用计算基准测试
+ *
+ * 运行：npm run bench
+ * 报告每个场景的吞吐量（hz）以及 mean/p75/p99/p999 延迟。
+ * 批量计算的结果规模随节点数平方增长，只在 100 节点以内测量。
+ */
+
+const BATCH_MAX_NODES = 100;
+
+// 大规模场景单次耗时可达数百毫秒，限制最少迭代次数以控制总时长
+const options = { time: 500, iterations: 5, warmupIterations: 1 };
+
+const defineScenario = (name: string, workflow: WorkflowDataV3) => {
+  // 查询最后一个节点，通常拥有最多的上级节点
+  const targetId = Number(workflow.nodes[workflow.nodes.length - 1].id);
+  const snapshot = compileReferenceSnapshot(workflow);
+  const result = calculateNodePreviousArgsFromSnapshot(targetId, snapshot);
+
+  describe(`${name} (${workflow.nodes.length} nodes)`, () => {
+    bench(
+      'compileReferenceSnapshot',
+      () => {
+        compileReferenceSnapshot(workflow);
+      },
+      options,
+    );
+
+    bench(
+      'calculateNodePreviousArgs',
+      () => {
+        calculateNodePreviousArgs(targetId, workflow);
+      },
+      options,
+    );
+
+    bench(
+      'calculateNodePreviousArgsFromSnapshot',
+      () => {
+        calculateNodePreviousArgsFromSnapshot(targetId, snapshot);
+      },
+      options,
+    );
+
+    bench(
+      'JSON.stringify(result)',
+      () => {
+        JSON.stringify(result);
+      },
+      options,
+    );
+
+    bench(
+      'serializeReferenceResult',
+      () => {
+        Array.from(serializeReferenceResult(result));
+      },
+      options,
+    );
+
+    if (workflow.nodes.length <= BATCH_MAX_NODES) {
+      bench(
+        'calculateAllNodesPreviousArgs',
+        () => {
+          calculateAllNodesPreviousArgs(workflow);
+        },
+        options,
+      );
+    }
+  });
+};
+
+Object.entries(FIXTURE_WORKFLOWS).forEach(([name, workflow]) =>
+  defineScenario(name, workflow),
+);
+
+SYNTHETIC_SCENARIOS.forEach((scenario) => {
+  SYNTHETIC_SIZES.forEach((size) =>
+    defineScenario(scenario, buildSyntheticWorkflow(scenario, size)),
+  );
+});
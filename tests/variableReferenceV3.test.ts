@@ -1,27 +1,13 @@
-import type {
-  ChildNode,
-  InputAndOutConfig,
-  WorkflowDataV3,
-} from '@/pages/Antv-X6/v3/types';
-import { calculateNodePreviousArgs } from '@/pages/Antv-X6/v3/utils/variableReferenceV3';
+import type { ChildNode, WorkflowDataV3 } from '@/pages/Antv-X6/v3/types';
+import {
+  calculateAllNodesPreviousArgs,
+  calculateNodePreviousArgs,
+  calculateNodePreviousArgsFromSnapshot,
+  compileReferenceSnapshot,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceV3';
 import { DataTypeEnum, NodeTypeEnum } from '@/types/enums/common';
 import { describe, expect, test } from 'vitest';
-
-const arg = (
-  name: string,
-  dataType: DataTypeEnum | string,
-  extra?: Partial<InputAndOutConfig>,
-): InputAndOutConfig => ({
-  name,
-  dataType,
-  description: '',
-  require: false,
-  systemVariable: false,
-  bindValue: '',
-  key: name,
-  subArgs: [],
-  ...extra,
-});
+import { arg, createNode } from './helpers/workflowFixtures';
 
 const buildWorkflow = (nodes: ChildNode[]): WorkflowDataV3 => ({
   workflowId: 1,
@@ -138,3 +124,303 @@ describe('variableReferenceV3 loop index scope', () => {
     expect(result.argMap['2-input.INDEX']).toBeTruthy();
   });
 });
+
+describe('variableReferenceV3 batch calculation', () => {
+  const buildLoopWorkflow = (): WorkflowDataV3 => {
+    const start = {
+      id: 1,
+      name: 'Start',
+      type: NodeTypeEnum.Start,
+      icon: '',
+      nextNodeIds: [2, 3],
+      nodeConfig: {
+        inputArgs: [
+          arg('items', DataTypeEnum.Array_Object, {
+            subArgs: [arg('field', DataTypeEnum.String)],
+          }),
+        ],
+      },
+    } as ChildNode;
+    const left = {
+      id: 2,
+      name: 'Left',
+      type: NodeTypeEnum.Code,
+      icon: '',
+      nextNodeIds: [4],
+      nodeConfig: {
+        outputArgs: [arg('left', DataTypeEnum.String)],
+        exceptionHandleConfig: {
+          exceptionHandleType: 'EXECUTE_EXCEPTION_FLOW',
+          exceptionHandleNodeIds: [3],
+        },
+      },
+    } as ChildNode;
+    const right = {
+      id: 3,
+      name: 'Right',
+      type: NodeTypeEnum.Variable,
+      icon: '',
+      nextNodeIds: [4],
+      nodeConfig: { configType: 'SET_VARIABLE' },
+    } as ChildNode;
+    const loopStart = {
+      id: 5,
+      name: 'LoopStart',
+      type: NodeTypeEnum.LoopStart,
+      icon: '',
+      loopNodeId: 4,
+      nextNodeIds: [6],
+      nodeConfig: {},
+    } as ChildNode;
+    const inner = {
+      id: 6,
+      name: 'Inner',
+      type: NodeTypeEnum.Code,
+      icon: '',
+      loopNodeId: 4,
+      nextNodeIds: [7],
+      nodeConfig: { outputArgs: [arg('count', DataTypeEnum.Integer)] },
+    } as ChildNode;
+    const loopEnd = {
+      id: 7,
+      name: 'LoopEnd',
+      type: NodeTypeEnum.LoopEnd,
+      icon: '',
+      loopNodeId: 4,
+      nextNodeIds: [4],
+      nodeConfig: {},
+    } as ChildNode;
+    const loop = {
+      id: 4,
+      name: 'Loop',
+      type: NodeTypeEnum.Loop,
+      icon: '',
+      nextNodeIds: [5, 8],
+      innerStartNodeId: 5,
+      innerEndNodeId: 7,
+      innerNodes: [loopStart, inner, loopEnd],
+      nodeConfig: {
+        inputArgs: [
+          arg('items', DataTypeEnum.Array_Object, {
+            bindValueType: 'Reference',
+            bindValue: '1.items',
+          }),
+        ],
+      },
+    } as ChildNode;
+    const end = {
+      id: 8,
+      name: 'End',
+      type: NodeTypeEnum.End,
+      icon: '',
+      nodeConfig: {},
+    } as ChildNode;
+
+    return buildWorkflow([
+      start,
+      left,
+      right,
+      loop,
+      loopStart,
+      inner,
+      loopEnd,
+      end,
+    ]);
+  };
+
+  test('batch results should match per-node calculation', () => {
+    const workflow = buildLoopWorkflow();
+    const batch = calculateAllNodesPreviousArgs(workflow);
+
+    expect(batch.size).toBe(workflow.nodes.length);
+    workflow.nodes.forEach((node) => {
+      const single = calculateNodePreviousArgs(node.id, workflow);
+      const result = batch.get(node.id);
+      expect(result?.previousNodes).toEqual(single.previousNodes);
+      expect(result?.innerPreviousNodes).toEqual(single.innerPreviousNodes);
+      expect(result?.argMap).toEqual(single.argMap);
+    });
+  });
+
+  test('batch results should keep exception flow and loop scope', () => {
+    const batch = calculateAllNodesPreviousArgs(buildLoopWorkflow());
+
+    const rightPrevIds = batch.get(3)?.previousNodes.map((n) => n.id);
+    expect(rightPrevIds).toEqual([2, 1]);
+
+    const innerResult = batch.get(6);
+    expect(innerResult?.argMap['4-input.INDEX']).toBeTruthy();
+    expect(innerResult?.argMap['3.isSuccess']).toBeTruthy();
+
+    const loopResult = batch.get(4);
+    expect(loopResult?.innerPreviousNodes.map((n) => n.id)).toEqual([6]);
+    expect(loopResult?.argMap['6.count']?.dataType).toBe(
+      DataTypeEnum.Array_Integer,
+    );
+  });
+
+  test('a shared snapshot should be read-only and reusable', () => {
+    const workflow = buildLoopWorkflow();
+    const snapshot = compileReferenceSnapshot(workflow);
+
+    expect(Object.isFrozen(snapshot)).toBe(true);
+    expect(Object.isFrozen(snapshot.graph)).toBe(true);
+    expect(Object.isFrozen(snapshot.argIndex.get(2))).toBe(true);
+
+    workflow.nodes.forEach((node) => {
+      const first = calculateNodePreviousArgsFromSnapshot(node.id, snapshot);
+      const second = calculateNodePreviousArgsFromSnapshot(node.id, snapshot);
+      expect(second).toEqual(first);
+      expect(first).toEqual(calculateNodePreviousArgs(node.id, workflow));
+    });
+  });
+
+  test('results should share the precomputed arg index', () => {
+    const workflow = buildLoopWorkflow();
+    const snapshot = compileReferenceSnapshot(workflow);
+
+    const left = calculateNodePreviousArgsFromSnapshot(2, snapshot);
+    const right = calculateNodePreviousArgsFromSnapshot(3, snapshot);
+
+    expect(right.argMap['1.items.field']).toBe(left.argMap['1.items.field']);
+    expect(right.previousNodes.find((n) => n.id === 1)?.outputArgs).toBe(
+      snapshot.argIndex.get(1)?.outputArgs,
+    );
+    // 组装结果不应修改原始节点配置
+    expect(workflow.nodes[0].nodeConfig.inputArgs?.[0].key).toBe('items');
+  });
+});
+
+describe('variableReferenceV3 loop type propagation', () => {
+  // Start -> OuterLoop[LoopStart -> InnerLoop[LoopStart -> Code -> LoopEnd] -> LoopEnd]
+  const buildNestedLoopWorkflow = (): WorkflowDataV3 => {
+    const start = createNode(1, NodeTypeEnum.Start, {
+      nextNodeIds: [2],
+      nodeConfig: {
+        outputArgs: [
+          arg('items', DataTypeEnum.Array_Object, {
+            subArgs: [arg('tags', DataTypeEnum.Array_String)],
+          }),
+          arg('files', DataTypeEnum.File_Image),
+        ],
+      },
+    });
+    const outerStart = createNode(3, NodeTypeEnum.LoopStart, {
+      loopNodeId: 2,
+      nextNodeIds: [4],
+    });
+    const innerStart = createNode(5, NodeTypeEnum.LoopStart, {
+      loopNodeId: 4,
+      nextNodeIds: [6],
+    });
+    const body = createNode(6, NodeTypeEnum.Code, {
+      loopNodeId: 4,
+      nextNodeIds: [7],
+      nodeConfig: { outputArgs: [arg('file', DataTypeEnum.File_Image)] },
+    });
+    const innerEnd = createNode(7, NodeTypeEnum.LoopEnd, {
+      loopNodeId: 4,
+      nextNodeIds: [4],
+    });
+    const innerLoop = createNode(4, NodeTypeEnum.Loop, {
+      loopNodeId: 2,
+      nextNodeIds: [5, 8],
+      innerStartNodeId: 5,
+      innerEndNodeId: 7,
+      innerNodes: [innerStart, body, innerEnd],
+      nodeConfig: {
+        inputArgs: [
+          arg('tags', DataTypeEnum.Array_String, {
+            bindValueType: 'Reference',
+            bindValue: '2-input.items_item.tags',
+          }),
+        ],
+      },
+    });
+    const outerEnd = createNode(8, NodeTypeEnum.LoopEnd, {
+      loopNodeId: 2,
+      nextNodeIds: [2],
+    });
+    const outerLoop = createNode(2, NodeTypeEnum.Loop, {
+      nextNodeIds: [3],
+      innerStartNodeId: 3,
+      innerEndNodeId: 8,
+      innerNodes: [outerStart, innerLoop, outerEnd],
+      nodeConfig: {
+        inputArgs: [
+          arg('items', DataTypeEnum.Array_Object, {
+            bindValueType: 'Reference',
+            bindValue: '1.items',
+          }),
+        ],
+      },
+    });
+
+    return buildWorkflow([
+      start,
+      outerLoop,
+      outerStart,
+      innerLoop,
+      innerStart,
+      body,
+      innerEnd,
+      outerEnd,
+    ]);
+  };
+
+  test('inner loop should resolve item type from the outer loop item', () => {
+    const workflow = buildNestedLoopWorkflow();
+    const snapshot = compileReferenceSnapshot(workflow);
+    const innerLoop = calculateNodePreviousArgsFromSnapshot(4, snapshot);
+    expect(innerLoop.argMap['2-input.items_item.tags']?.dataType).toBe(
+      DataTypeEnum.Array_String,
+    );
+
+    const result = calculateNodePreviousArgsFromSnapshot(6, snapshot);
+    expect(result.argMap['4-input.tags_item']?.dataType).toBe(
+      DataTypeEnum.String,
+    );
+    expect(result.argMap['4-input.INDEX']).toBeTruthy();
+    expect(calculateNodePreviousArgs(6, workflow)).toEqual(result);
+  });
+
+  test('loop outputs should be lifted to array types', () => {
+    const workflow = buildNestedLoopWorkflow();
+    const snapshot = compileReferenceSnapshot(workflow);
+
+    const innerLoopResult = calculateNodePreviousArgsFromSnapshot(4, snapshot);
+    expect(innerLoopResult.argMap['6.file']?.dataType).toBe(
+      DataTypeEnum.Array_File_Image,
+    );
+
+    workflow.nodes.forEach((item) => {
+      expect(calculateNodePreviousArgsFromSnapshot(item.id, snapshot)).toEqual(
+        calculateNodePreviousArgs(item.id, workflow),
+      );
+    });
+  });
+});
+
+describe('variableReferenceV3 traversal', () => {
+  test('should handle long chains and rejoined branches without recursion', () => {
+    const size = 5000;
+    const nodes: ChildNode[] = [];
+    for (let id = 1; id <= size; id++) {
+      nodes.push({
+        id,
+        name: `Node${id}`,
+        type: id === 1 ? NodeTypeEnum.Start : NodeTypeEnum.Code,
+        icon: '',
+        // 每个节点同时连到后两个节点，形成连续的菱形结构
+        nextNodeIds: [id + 1, id + 2].filter((next) => next <= size),
+        nodeConfig: { outputArgs: [arg('out', DataTypeEnum.String)] },
+      } as ChildNode);
+    }
+
+    const result = calculateNodePreviousArgs(size, buildWorkflow(nodes));
+
+    expect(result.previousNodes).toHaveLength(size - 1);
+    expect(result.previousNodes[0].id).toBe(size - 1);
+    expect(result.argMap['1.out']).toBeTruthy();
+  });
+});
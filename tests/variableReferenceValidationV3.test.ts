@@ -0,0 +1,131 @@
+import type { WorkflowDataV3 } from '@/pages/Antv-X6/v3/types';
+import {
+  collectNodeReferenceArgs,
+  validateReferencesFromSnapshot,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceValidationV3';
+import {
+  calculateNodePreviousArgsFromSnapshot,
+  compileReferenceSnapshot,
+  resolveReferenceFromSnapshot,
+} from '@/pages/Antv-X6/v3/utils/variableReferenceV3';
+import { DataTypeEnum, NodeTypeEnum } from '@/types/enums/common';
+import { describe, expect, test } from 'vitest';
+import {
+  arg,
+  buildSyntheticWorkflow,
+  createNode,
+  refArg,
+} from './helpers/workflowFixtures';
+
+// Start -> Code -> Condition -> End
+const buildWorkflow = (): WorkflowDataV3 => ({
+  workflowId: 1,
+  edges: [],
+  nodes: [
+    createNode(1, NodeTypeEnum.Start, {
+      nextNodeIds: [2],
+      nodeConfig: { inputArgs: [arg('query', DataTypeEnum.String)] },
+    }),
+    createNode(2, NodeTypeEnum.Code, {
+      nextNodeIds: [3],
+      nodeConfig: {
+        inputArgs: [
+          refArg('query', DataTypeEnum.String, '1.query'),
+          // 引用下游节点（未来节点）
+          refArg('future', DataTypeEnum.Integer, '3.count'),
+        ],
+        outputArgs: [arg('count', DataTypeEnum.Integer)],
+      },
+    }),
+    createNode(3, NodeTypeEnum.Condition, {
+      nextNodeIds: [4],
+      nodeConfig: {
+        outputArgs: [arg('count', DataTypeEnum.Integer)],
+        conditionBranchConfigs: [
+          {
+            branchType: 'IF',
+            conditionType: 'AND',
+            uuid: 'branch',
+            conditionArgs: [
+              {
+                compareType: 'EQUAL',
+                firstArg: refArg('count', DataTypeEnum.Integer, '2.count'),
+                // 引用已删除的节点
+                secondArg: refArg('removed', DataTypeEnum.String, '9.value'),
+              },
+            ],
+          },
+        ],
+      } as any,
+    }),
+    createNode(4, NodeTypeEnum.End, {
+      nodeConfig: {
+        outputArgs: [
+          // 单值类型之间可以转换，不报告
+          refArg('count', DataTypeEnum.String, '2.count'),
+          // 上游类型已从数组改为 Integer
+          refArg('list', DataTypeEnum.Array_String, '2.count'),
+          arg('text', DataTypeEnum.String, { bindValueType: 'Input' }),
+        ],
+      },
+    }),
+  ],
+});
+
+describe('variableReferenceValidationV3', () => {
+  test('should collect reference args from args and condition branches', () => {
+    const [, code, condition, end] = buildWorkflow().nodes;
+
+    expect(collectNodeReferenceArgs(code).map((item) => item.field)).toEqual([
+      'inputArgs.query',
+      'inputArgs.future',
+    ]);
+    expect(
+      collectNodeReferenceArgs(condition).map((item) => item.field),
+    ).toEqual([
+      'conditionBranchConfigs[0].conditionArgs[0].firstArg',
+      'conditionBranchConfigs[0].conditionArgs[0].secondArg',
+    ]);
+    expect(collectNodeReferenceArgs(end)).toHaveLength(2);
+  });
+
+  test('should report broken and type-mismatched references', () => {
+    const issues = validateReferencesFromSnapshot(
+      compileReferenceSnapshot(buildWorkflow()),
+    );
+
+    expect(
+      issues.map(({ type, nodeId, bindValue }) => ({
+        type,
+        nodeId,
+        bindValue,
+      })),
+    ).toEqual([
+      { type: 'missing', nodeId: 2, bindValue: '3.count' },
+      { type: 'missing', nodeId: 3, bindValue: '9.value' },
+      { type: 'typeMismatch', nodeId: 4, bindValue: '2.count' },
+    ]);
+    expect(issues[2]).toMatchObject({
+      field: 'outputArgs.list',
+      dataType: DataTypeEnum.Array_String,
+      referencedDataType: DataTypeEnum.Integer,
+    });
+  });
+
+  test('resolving a single key should match the assembled argMap', () => {
+    const workflow = buildSyntheticWorkflow('nestedLoop', 40);
+    const snapshot = compileReferenceSnapshot(workflow);
+    const argMaps = workflow.nodes.map(
+      (item) => calculateNodePreviousArgsFromSnapshot(item.id, snapshot).argMap,
+    );
+    const allKeys = new Set(argMaps.flatMap((argMap) => Object.keys(argMap)));
+
+    workflow.nodes.forEach((item, index) => {
+      allKeys.forEach((key) => {
+        expect(resolveReferenceFromSnapshot(item.id, key, snapshot)).toEqual(
+          argMaps[index][key],
+        );
+      });
+    });
+  });
+});